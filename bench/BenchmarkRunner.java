@@ -0,0 +1,270 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.IntSupplier;
+
+/**
+ * Đo hiệu năng các đường nóng (đặt lịch, tra cứu, CSV, báo cáo) trên bộ dữ liệu DataSeeder.seedScaled.
+ * Không phụ thuộc thư viện ngoài; kết quả ghi ra JSON để so sánh giữa các phiên bản.
+ *
+ * Biên dịch & chạy:
+ *   javac -encoding UTF-8 -d out src/*.java bench/*.java
+ *   java -cp out BenchmarkRunner --patients 10000 --doctors 500 --appointments 5000000 --out bench.json
+ * Chỉ chạy một nhóm (theo tiền tố tên): --only export; xem tham số: --help
+ */
+public class BenchmarkRunner {
+
+    /** 1 phép đo: chạy op trong mỗi vòng, trả về số thao tác đã làm */
+    private static final class Bench {
+        final String name;
+        final IntSupplier op;
+        Bench(String name, IntSupplier op) { this.name = name; this.op = op; }
+    }
+
+    private static final class Result {
+        final String name;
+        final long ops;
+        final double[] nsPerOp;
+        Result(String name, long ops, double[] nsPerOp) { this.name = name; this.ops = ops; this.nsPerOp = nsPerOp; }
+    }
+
+    static final String USAGE = "java -cp out BenchmarkRunner [--patients 10000] [--doctors 500] [--appointments 200000]"
+            + " [--warmup 3] [--iterations 5] [--out bench-results.json] [--only <tiền tố tên phép đo>]";
+
+    // giữ kết quả để JIT không bỏ qua vòng lặp
+    static volatile int sink;
+
+    private final int warmup;
+    private final int iterations;
+    private final List<Result> results = new ArrayList<>();
+
+    BenchmarkRunner(int warmup, int iterations) { this.warmup = warmup; this.iterations = iterations; }
+
+    void run(Bench b) {
+        for (int i = 0; i < warmup; i++) b.op.getAsInt();
+        double[] ns = new double[iterations];
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            long t0 = System.nanoTime();
+            int ops = b.op.getAsInt();
+            ns[i] = (System.nanoTime() - t0) / (double) Math.max(1, ops);
+            total += ops;
+        }
+        Arrays.sort(ns);
+        Result r = new Result(b.name, total, ns);
+        results.add(r);
+        System.out.printf("%-28s %12.1f ns/op (min %.1f, max %.1f)%n", b.name, mean(ns), ns[0], ns[ns.length - 1]);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> opt = parseArgs(args, USAGE, "patients", "doctors", "appointments", "warmup", "iterations", "out", "only");
+        int patients = Integer.parseInt(opt.getOrDefault("patients", "10000"));
+        int doctors = Integer.parseInt(opt.getOrDefault("doctors", "500"));
+        int appointments = Integer.parseInt(opt.getOrDefault("appointments", "200000"));
+        int warmup = Integer.parseInt(opt.getOrDefault("warmup", "3"));
+        int iterations = Integer.parseInt(opt.getOrDefault("iterations", "5"));
+        String out = opt.getOrDefault("out", "bench-results.json");
+        String only = opt.getOrDefault("only", "");
+
+        System.out.printf("Dữ liệu: %d bệnh nhân, %d bác sĩ, %d lịch hẹn%n", patients, doctors, appointments);
+        AppointmentManager mgr = DataSeeder.seedScaled(patients, doctors, appointments, 42);
+        Path dir = Files.createTempDirectory("btl-bench");
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations);
+        try {
+            for (Bench b : benches(mgr, dir)) if (b.name.startsWith(only)) runner.run(b);
+        } finally {
+            deleteRecursively(dir); // vài GB ở 5M lịch hẹn
+        }
+        runner.writeJson(Paths.get(out), opt);
+        System.out.println(">> Đã ghi kết quả: " + out);
+    }
+
+    static List<Bench> benches(AppointmentManager mgr, Path dir) {
+        List<Patient> patients = mgr.getPatients();
+        List<Doctor> doctors = mgr.getDoctors();
+        List<MedicalService> services = mgr.getServices();
+        List<Appointment> appointments = mgr.getAppointments();
+        Random rnd = new Random(1);
+        // đặt lịch mới ở vùng tương lai xa, mỗi bác sĩ 1 con trỏ để luôn trống
+        LocalDateTime future = LocalDate.now().plusYears(5).atTime(Constants.WORK_START_HOUR, 0);
+        LocalDateTime[] cursor = new LocalDateTime[doctors.size()];
+        Arrays.fill(cursor, future);
+        MedicalService exam = services.get(0);
+        String csv = dir.resolve("appointments.csv").toString();
+
+        List<Bench> list = new ArrayList<>();
+        list.add(new Bench("book", () -> {
+            for (int i = 0; i < 10_000; i++) {
+                int d = rnd.nextInt(doctors.size());
+                mgr.book(patients.get(rnd.nextInt(patients.size())).getId(), doctors.get(d).getId(), exam.getId(), cursor[d]);
+                cursor[d] = cursor[d].plusMinutes(exam.getDurationMinutes());
+            }
+            return 10_000;
+        }));
+        list.add(new Bench("bookAll(1000)", () -> {
+            List<BookingRequest> batch = new ArrayList<>(1000);
+            for (int i = 0; i < 1000; i++) {
+                int d = rnd.nextInt(doctors.size());
+                batch.add(new BookingRequest(patients.get(rnd.nextInt(patients.size())).getId(), doctors.get(d).getId(), exam.getId(), cursor[d]));
+                cursor[d] = cursor[d].plusMinutes(exam.getDurationMinutes());
+            }
+            mgr.bookAll(batch, false);
+            return 1000;
+        }));
+        list.add(new Bench("isAvailable", () -> {
+            int hits = 0;
+            for (int i = 0; i < 100_000; i++) {
+                Appointment a = appointments.get(rnd.nextInt(appointments.size()));
+                if (mgr.isAvailable(a.getDoctorId(), a.getStart(), a.getEnd())) hits++;
+            }
+            sink = hits;
+            return 100_000;
+        }));
+        list.add(new Bench("getAppointment(id)", () -> {
+            int found = 0;
+            for (int i = 0; i < 100_000; i++) {
+                if (mgr.getAppointment(appointments.get(rnd.nextInt(appointments.size())).getId()) != null) found++;
+            }
+            sink = found;
+            return 100_000;
+        }));
+        list.add(new Bench("getPatient(id)", () -> {
+            int found = 0;
+            for (int i = 0; i < 100_000; i++) {
+                if (mgr.getPatient(patients.get(rnd.nextInt(patients.size())).getId()) != null) found++;
+            }
+            sink = found;
+            return 100_000;
+        }));
+        list.add(new Bench("findFreeSlots(doctor,7d)", () -> {
+            for (int i = 0; i < 1000; i++) {
+                Appointment a = appointments.get(rnd.nextInt(appointments.size()));
+                mgr.findFreeSlots(a.getDoctorId(), exam, a.getStart(), a.getStart().plusDays(7), 5);
+            }
+            return 1000;
+        }));
+        list.add(new Bench("csv.save(appointments)", () -> {
+            List<Appointment> all = mgr.getAppointments();
+            CsvStorage.save(csv, all);
+            return all.size();
+        }));
+        list.add(new Bench("csv.load(appointments)", () -> CsvStorage.load(csv, Appointment::fromCSV).size()));
+        list.add(new Bench("csv.loadParallel(appts)", () -> CsvStorage.loadParallel(csv, Appointment::fromCSV).size()));
+        // xuất hàng loạt: chỉ dựng dòng CSV trong bộ nhớ để tách chi phí định dạng khỏi I/O
+        List<Invoice> invoices = mgr.getInvoices();
+        list.add(new Bench("export.toCSV(appts+invoices)", () -> {
+            int len = 0;
+            for (Appointment a : appointments) len += a.toCSV().length();
+            for (Invoice inv : invoices) len += inv.toCSV().length();
+            sink = len;
+            return appointments.size() + invoices.size();
+        }));
+        list.add(new Bench("export.dateTime(formatter)", () -> {
+            java.time.format.DateTimeFormatter f = DateTimeUtil.formatter(Constants.DATE_TIME_PATTERN);
+            int len = 0;
+            for (int i = 0; i < 100_000; i++) len += f.format(appointments.get(i % appointments.size()).getStart()).length();
+            sink = len;
+            return 100_000;
+        }));
+        list.add(new Bench("export.dateTime(DateTimeUtil)", () -> {
+            int len = 0;
+            for (int i = 0; i < 100_000; i++) len += DateTimeUtil.format(appointments.get(i % appointments.size()).getStart(), Constants.DATE_TIME_PATTERN).length();
+            sink = len;
+            return 100_000;
+        }));
+        list.add(new Bench("export.serviceCost(compute)", () -> {
+            double sum = 0;
+            for (int i = 0; i < 1_000_000; i++) sum += services.get(i % services.size()).computeCost();
+            sink = (int) sum;
+            return 1_000_000;
+        }));
+        list.add(new Bench("export.serviceCost(cached)", () -> {
+            double sum = 0;
+            for (int i = 0; i < 1_000_000; i++) sum += services.get(i % services.size()).getCost();
+            sink = (int) sum;
+            return 1_000_000;
+        }));
+        list.add(new Bench("report.top3Doctors", () -> {
+            for (int i = 0; i < 1000; i++) DataSeeder.top3DoctorsByAppointments(mgr);
+            return 1000;
+        }));
+        list.add(new Bench("report.monthlyRevenue", () -> {
+            LocalDateTime now = LocalDateTime.now();
+            for (int i = 0; i < 1000; i++) DataSeeder.monthlyRevenue(mgr, now.getYear(), now.getMonthValue());
+            return 1000;
+        }));
+        return list;
+    }
+
+    void writeJson(Path path, Map<String, String> params) throws IOException {
+        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            w.write("{\n  \"timestamp\": \"" + LocalDateTime.now() + "\",\n");
+            w.write("  \"java\": \"" + System.getProperty("java.version") + "\",\n");
+            w.write("  \"params\": {");
+            int i = 0;
+            for (Map.Entry<String, String> e : params.entrySet()) {
+                w.write((i++ == 0 ? "" : ", ") + Json.quote(e.getKey()) + ": " + Json.quote(e.getValue()));
+            }
+            w.write("},\n  \"results\": [\n");
+            for (int r = 0; r < results.size(); r++) {
+                Result res = results.get(r);
+                w.write(String.format(Locale.ROOT,
+                        "    {\"name\": %s, \"ops\": %d, \"nsPerOp\": {\"mean\": %.2f, \"min\": %.2f, \"p50\": %.2f, \"max\": %.2f}}%s%n",
+                        Json.quote(res.name), res.ops, mean(res.nsPerOp), res.nsPerOp[0], res.nsPerOp[res.nsPerOp.length / 2],
+                        res.nsPerOp[res.nsPerOp.length - 1], r + 1 < results.size() ? "," : ""));
+            }
+            w.write("  ]\n}\n");
+        }
+    }
+
+    private static double mean(double[] xs) {
+        double s = 0;
+        for (double x : xs) s += x;
+        return s / xs.length;
+    }
+
+    /**
+     * Các cặp --key value, key phải thuộc keys. --help (-h) in cách dùng rồi thoát; tham số lạ, thiếu giá
+     * trị hay không theo cặp thì in lỗi + cách dùng rồi thoát mã 2, không chạy phép đo với tham số mặc định.
+     */
+    static Map<String, String> parseArgs(String[] args, String usage, String... keys) {
+        Set<String> known = Set.of(keys);
+        Map<String, String> opt = new LinkedHashMap<>();
+        for (String a : args) {
+            if (a.equals("--help") || a.equals("-h")) {
+                System.out.println("Cách dùng: " + usage);
+                System.exit(0);
+            }
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String key = args[i].startsWith("--") ? args[i].substring(2) : null;
+            String error = key == null || !known.contains(key) ? "Tham số không hợp lệ: " + args[i]
+                    : i + 1 >= args.length ? "Thiếu giá trị cho " + args[i] : null;
+            if (error != null) {
+                System.err.println("!! " + error);
+                System.err.println("Cách dùng: " + usage);
+                System.exit(2);
+            }
+            opt.put(key, args[i + 1]);
+        }
+        return opt;
+    }
+
+    /** Xóa thư mục tạm và mọi thứ bên trong; lỗi xóa chỉ in cảnh báo */
+    static void deleteRecursively(Path dir) {
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    System.err.println("!! Không xóa được " + p + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("!! Không xóa được " + dir + ": " + e.getMessage());
+        }
+    }
+}
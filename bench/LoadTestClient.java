@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Client tải cục bộ cho ApiServer: nhiều luồng gửi request đồng thời theo tỉ lệ trộn cố định
+ * (tìm giờ trống, tìm bệnh nhân, xem lịch bác sĩ, đặt lịch) trong một khoảng thời gian, rồi in
+ * thông lượng và độ trễ p50/p99/p99.9 theo từng loại request.
+ *
+ * Biên dịch & chạy:
+ *   javac -encoding UTF-8 -d out src/*.java bench/*.java
+ *   java -cp out ApiServer --port 8080 &
+ *   java -cp out LoadTestClient --url http://localhost:8080 --threads 64 --seconds 30
+ * hoặc tự dựng server trên dữ liệu sinh sẵn trong cùng JVM:
+ *   java -cp out LoadTestClient --embedded 1 --patients 10000 --doctors 200 --appointments 200000
+ */
+public class LoadTestClient {
+    private static final Pattern ID = Pattern.compile("\"id\": \"([0-9a-f-]{36})\"");
+    private static final String[] KINDS = {"free-slots", "search", "doctor-appts", "book"};
+    private static final int[] MIX = {40, 30, 20, 10}; // % mỗi loại, cộng lại 100
+    private static final String[] NAMES = {"Nguyen", "Tran", "Le", "Pham", "Hoang", "Vu", "Dang", "Bui", "Minh", "Lan"};
+
+    private final String base;
+    private final HttpClient http;
+    private final List<String> patients, doctors, services;
+    private final LatencyHistogram[] latency = new LatencyHistogram[KINDS.length];
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentSkipListMap<>();
+    private final LongAdder failures = new LongAdder();
+
+    LoadTestClient(String base, HttpClient http) throws IOException, InterruptedException {
+        this.base = base;
+        this.http = http;
+        this.doctors = ids(get("/api/doctors"));
+        this.services = ids(get("/api/services"));
+        this.patients = ids(get("/api/patients?size=500"));
+        if (doctors.isEmpty() || services.isEmpty() || patients.isEmpty()) throw new IllegalStateException("Server chưa có dữ liệu");
+        for (int i = 0; i < KINDS.length; i++) latency[i] = new LatencyHistogram();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = BenchmarkRunner.parseArgs(args,
+                "java -cp out LoadTestClient [--url http://localhost:8080] [--threads 32] [--seconds 20] [--warmup 5]"
+                        + " [--embedded 1 --patients 10000 --doctors 200 --appointments 200000]",
+                "url", "threads", "seconds", "warmup", "embedded", "patients", "doctors", "appointments");
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "32"));
+        int seconds = Integer.parseInt(opt.getOrDefault("seconds", "20"));
+        int warmup = Integer.parseInt(opt.getOrDefault("warmup", "5"));
+        String url = opt.getOrDefault("url", "http://localhost:8080");
+
+        ApiServer embedded = null;
+        if (opt.getOrDefault("embedded", "0").equals("1")) {
+            AppointmentManager mgr = DataSeeder.seedScaled(Integer.parseInt(opt.getOrDefault("patients", "10000")),
+                    Integer.parseInt(opt.getOrDefault("doctors", "200")), Integer.parseInt(opt.getOrDefault("appointments", "200000")), 42);
+            embedded = new ApiServer(mgr, 0);
+            embedded.start();
+            url = "http://localhost:" + embedded.port();
+        }
+
+        ExecutorService clientPool = Executors.newFixedThreadPool(Math.max(4, threads / 4));
+        HttpClient http = HttpClient.newBuilder().executor(clientPool).connectTimeout(Duration.ofSeconds(5)).build();
+        try {
+            System.out.printf("Tải %s: %d luồng, khởi động %ds, đo %ds%n", url, threads, warmup, seconds);
+            if (warmup > 0) new LoadTestClient(url, http).run(threads, warmup);
+            LoadTestClient client = new LoadTestClient(url, http);
+            long elapsed = client.run(threads, seconds);
+            client.report(elapsed);
+        } finally {
+            clientPool.shutdownNow();
+            if (embedded != null) embedded.stop();
+        }
+    }
+
+    /** Chạy threads luồng trong seconds giây, trả về thời gian đo thực tế (ns) */
+    long run(int threads, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            long seed = i;
+            Thread t = new Thread(() -> work(new Random(seed), deadline), "load-" + i);
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) t.join();
+        return System.nanoTime() - t0;
+    }
+
+    private void work(Random rnd, long deadline) {
+        while (System.nanoTime() < deadline) {
+            int kind = pick(rnd.nextInt(100));
+            HttpRequest req = request(kind, rnd);
+            long t0 = System.nanoTime();
+            try {
+                HttpResponse<Void> res = http.send(req, HttpResponse.BodyHandlers.discarding());
+                long ns = System.nanoTime() - t0;
+                latency[kind].record(ns);
+                overall.record(ns);
+                statuses.computeIfAbsent(res.statusCode(), k -> new LongAdder()).increment();
+            } catch (IOException e) {
+                failures.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static int pick(int r) {
+        for (int i = 0; i < MIX.length; i++) {
+            if (r < MIX[i]) return i;
+            r -= MIX[i];
+        }
+        return MIX.length - 1;
+    }
+
+    private HttpRequest request(int kind, Random rnd) {
+        String doctor = doctors.get(rnd.nextInt(doctors.size()));
+        String service = services.get(rnd.nextInt(services.size()));
+        LocalDate day = LocalDate.now().plusDays(1 + rnd.nextInt(30));
+        return switch (kind) {
+            case 0 -> HttpRequest.newBuilder(URI.create(base + "/api/doctors/" + doctor + "/free-slots?serviceId=" + service
+                    + "&from=" + day + "T08:00&limit=5")).GET().build();
+            case 1 -> HttpRequest.newBuilder(URI.create(base + "/api/patients?q=" + NAMES[rnd.nextInt(NAMES.length)] + "&size=20")).GET().build();
+            case 2 -> HttpRequest.newBuilder(URI.create(base + "/api/doctors/" + doctor + "/appointments?from=" + day
+                    + "T00:00&to=" + day.plusDays(7) + "T00:00")).GET().build();
+            default -> {
+                String start = String.format("%sT%02d:%02d", day, 8 + rnd.nextInt(8), 15 * rnd.nextInt(4));
+                String body = "{\"patientId\": \"" + patients.get(rnd.nextInt(patients.size())) + "\", \"doctorId\": \"" + doctor
+                        + "\", \"serviceId\": \"" + service + "\", \"start\": \"" + start + "\"}";
+                yield HttpRequest.newBuilder(URI.create(base + "/api/appointments"))
+                        .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            }
+        };
+    }
+
+    void report(long elapsedNanos) {
+        double secs = elapsedNanos / 1e9;
+        System.out.printf("%n%-14s %10s %10s %10s %10s %10s%n", "request", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (int i = 0; i < KINDS.length; i++) line(KINDS[i], latency[i]);
+        line("tổng", overall);
+        System.out.printf("%nThông lượng: %.0f req/s (%d request trong %.1fs), lỗi kết nối: %d%n",
+                overall.count() / secs, overall.count(), secs, failures.sum());
+        StringBuilder sb = new StringBuilder("Mã trả về:");
+        statuses.forEach((code, n) -> sb.append(' ').append(code).append('=').append(n.sum()));
+        System.out.println(sb);
+    }
+
+    private static void line(String name, LatencyHistogram h) {
+        System.out.printf("%-14s %10d %10.2f %10.2f %10.2f %10.2f%n", name, h.count(),
+                h.percentile(0.50) / 1e6, h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.max() / 1e6);
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpResponse<String> res = http.send(HttpRequest.newBuilder(URI.create(base + path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+        if (res.statusCode() != 200) throw new IOException("GET " + path + " -> " + res.statusCode() + ": " + res.body());
+        return res.body();
+    }
+
+    private static List<String> ids(String json) {
+        List<String> ids = new ArrayList<>();
+        Matcher m = ID.matcher(json);
+        while (m.find()) ids.add(m.group(1));
+        return ids;
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Đo thông lượng đặt lịch của ShardedManager khi tăng số cơ sở: cùng bộ dữ liệu DataSeeder.seedScaled
+ * được chia thành 1, 2, 4, ... cơ sở (mỗi cơ sở 1 thư mục tạm, nhật ký + ghi nền bật như chạy thật), rồi nhiều
+ * luồng đặt lịch ngẫu nhiên (bác sĩ, bệnh nhân, dịch vụ, giờ khớp lưới 5 phút trong năm tới) trong
+ * một khoảng thời gian. In số lượt/giây, hệ số so với 1 cơ sở và độ trễ p50/p99.
+ * Lượt trùng lịch vẫn tính là 1 lượt (đã đi hết đường kiểm tra); mở rộng được bao nhiêu phụ thuộc số
+ * nhân CPU: máy 1 nhân thì các cơ sở chỉ bớt tranh khóa chứ không chạy song song thật.
+ *
+ * Biên dịch & chạy:
+ *   javac -encoding UTF-8 -d out src/*.java bench/*.java
+ *   java -cp out ShardScalingBench --shards 1,2,4 --threads 8 --seconds 10 --doctors 200 --appointments 200000
+ */
+public class ShardScalingBench {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> opt = BenchmarkRunner.parseArgs(args,
+                "java -cp out ShardScalingBench [--shards 1,2,4] [--threads 8] [--seconds 10] [--patients 10000]"
+                        + " [--doctors 200] [--appointments 200000]",
+                "shards", "threads", "seconds", "patients", "doctors", "appointments");
+        int[] shardCounts = Arrays.stream(opt.getOrDefault("shards", "1,2,4").split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "8"));
+        int seconds = Integer.parseInt(opt.getOrDefault("seconds", "10"));
+        int patients = Integer.parseInt(opt.getOrDefault("patients", "10000"));
+        int doctors = Integer.parseInt(opt.getOrDefault("doctors", "200"));
+        int appointments = Integer.parseInt(opt.getOrDefault("appointments", "200000"));
+
+        AppointmentManager source = DataSeeder.seedScaled(patients, doctors, appointments, 42);
+        Path root = Files.createTempDirectory("btl-shards");
+        System.out.printf(">> %d CPU, %d luồng, %d giây/lượt, dữ liệu tại %s%n",
+                Runtime.getRuntime().availableProcessors(), threads, seconds, root);
+
+        double baseline = 0;
+        try {
+            for (int n : shardCounts) {
+                try (ShardedManager sharded = ShardedManager.partition(source, n, root.resolve("n" + n))) {
+                    sharded.startPersister(Constants.PERSIST_INTERVAL_MS); // như ApiServer: gộp nhật ký trên luồng nền
+                    run(sharded, source, threads, 1); // làm nóng JIT
+                    Result r = run(sharded, source, threads, seconds);
+                    if (baseline == 0) baseline = r.perSecond;
+                    System.out.printf("%2d cơ sở: %10.0f lượt/s  (x%.2f)  đặt %d, trùng %d  p50 %.1f µs  p99 %.1f µs%n",
+                            n, r.perSecond, r.perSecond / baseline, r.booked, r.conflicts,
+                            r.latency.percentile(0.50) / 1e3, r.latency.percentile(0.99) / 1e3);
+                }
+            }
+        } finally {
+            BenchmarkRunner.deleteRecursively(root);
+        }
+    }
+
+    private static final class Result {
+        double perSecond;
+        long booked, conflicts;
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private static Result run(ShardedManager sharded, AppointmentManager source, int threads, int seconds) throws InterruptedException {
+        List<UUID> patients = source.getPatients().stream().map(Patient::getId).toList();
+        List<UUID> doctors = source.getDoctors().stream().map(Doctor::getId).toList();
+        List<UUID> services = source.getServices().stream().map(MedicalService::getId).toList();
+        LocalDate firstDay = LocalDate.now().plusYears(1);
+        int slotsPerDay = (Constants.WORK_END_HOUR - Constants.WORK_START_HOUR - 2) * 12; // chừa 2 giờ cho dịch vụ dài
+
+        Result r = new Result();
+        LongAdder booked = new LongAdder(), conflicts = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    LocalDateTime start = firstDay.plusDays(rnd.nextInt(365))
+                            .atTime(Constants.WORK_START_HOUR, 0).plusMinutes(5L * rnd.nextInt(slotsPerDay));
+                    long t0 = System.nanoTime();
+                    try {
+                        sharded.book(patients.get(rnd.nextInt(patients.size())), doctors.get(rnd.nextInt(doctors.size())),
+                                services.get(rnd.nextInt(services.size())), start);
+                        booked.increment();
+                    } catch (AppointmentConflictException e) {
+                        conflicts.increment();
+                    }
+                    r.latency.record(System.nanoTime() - t0);
+                }
+                done.countDown();
+            }, "bench-" + t);
+            worker.start();
+        }
+        done.await();
+        r.booked = booked.sum();
+        r.conflicts = conflicts.sum();
+        r.perSecond = (r.booked + r.conflicts) / (double) seconds;
+        return r;
+    }
+}
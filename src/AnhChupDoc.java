@@ -0,0 +1,264 @@
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Đồng hồ phiên bản: mỗi thao tác ghi lấy 1 số (begin) rồi báo xong (commit), các luồng xong theo thứ
+ * tự bất kỳ. published() là số lớn nhất mà mọi thao tác <= nó đã xong, nên đọc tại published() luôn
+ * thấy trọn từng thao tác. Không khóa: ai commit cũng đẩy mốc qua các số đã xong liền sau nó.
+ * Mỗi số dùng 1 ô của vòng WINDOW ô; 1 thao tác dở quá lâu (lô bookAll, markPaidChunk lớn) mà số mới
+ * chạy xa quá WINDOW thì begin() chờ nó xong thay vì ghi đè ô của nó (làm mốc kẹt mãi).
+ */
+final class VersionClock {
+    // khoảng cách tối đa giữa số mới nhất và mốc đã công bố
+    static final int WINDOW = 1 << 16;
+
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLongArray done = new AtomicLongArray(WINDOW);
+
+    long begin() {
+        long v = next.incrementAndGet();
+        if (v - published.get() > WINDOW) awaitSlot(v);
+        return v;
+    }
+
+    // ô của v còn giữ số v - WINDOW: chờ mốc qua số đó (nó commit xong) rồi mới được dùng
+    private void awaitSlot(long v) {
+        while (v - published.get() > WINDOW) LockSupport.parkNanos(this, 10_000);
+    }
+
+    /** Phải gọi đúng 1 lần cho mỗi begin(), kể cả khi thao tác lỗi (để trong finally) */
+    void commit(long version) {
+        done.set(slot(version), version);
+        while (true) {
+            long p = published.get();
+            if (done.get(slot(p + 1)) != p + 1) return;
+            published.compareAndSet(p, p + 1); // thua CAS nghĩa là luồng khác vừa đẩy: đọc lại
+        }
+    }
+
+    long published() { return published.get(); }
+
+    private static int slot(long version) { return (int) (version & (WINDOW - 1)); }
+}
+
+/**
+ * Danh sách chỉ nối thêm, chia khối CHUNK phần tử, mỗi phần tử kèm phiên bản lúc thêm. Khối đã ghi
+ * không bao giờ bị sửa nên bản chụp chỉ cần giữ mảng khối + số phần tử (O(1), dùng chung với log).
+ * Ghi có khóa ngắn giữa các luồng ghi; đọc không khóa.
+ */
+final class ChunkedLog<T> {
+    static final int SHIFT = 12, CHUNK = 1 << SHIFT;
+
+    static final class Chunk {
+        final Object[] items = new Object[CHUNK];
+        final long[] versions = new long[CHUNK];
+    }
+
+    private volatile Chunk[] chunks = new Chunk[16];
+    private volatile int size;
+
+    ChunkedLog(List<T> initial, long version) {
+        for (T t : initial) append(t, version);
+    }
+
+    synchronized void append(T item, long version) {
+        int n = size, c = n >>> SHIFT;
+        Chunk[] cs = chunks;
+        if (c == cs.length) chunks = cs = Arrays.copyOf(cs, cs.length * 2);
+        if (cs[c] == null) cs[c] = new Chunk();
+        cs[c].items[n & (CHUNK - 1)] = item;
+        cs[c].versions[n & (CHUNK - 1)] = version;
+        size = n + 1; // ghi volatile sau cùng: ai đọc được size thấy đủ phần tử trước nó
+    }
+
+    /** Phần đầu đã ghi tại thời điểm gọi; đọc size trước rồi mới lấy mảng khối */
+    View<T> view() {
+        int n = size;
+        return new View<>(chunks, n);
+    }
+
+    static final class View<T> {
+        private final Chunk[] chunks;
+        private final int size;
+
+        View(Chunk[] chunks, int size) { this.chunks = chunks; this.size = size; }
+
+        /** Phần tử thêm ở phiên bản <= version; chia theo chỉ số nên chạy song song tốt */
+        @SuppressWarnings("unchecked")
+        Stream<T> upTo(long version) {
+            return IntStream.range(0, size)
+                    .filter(i -> chunks[i >>> SHIFT].versions[i & (CHUNK - 1)] <= version)
+                    .mapToObj(i -> (T) chunks[i >>> SHIFT].items[i & (CHUNK - 1)]);
+        }
+    }
+}
+
+/**
+ * Nguồn bản chụp đọc của AppointmentManager. Mỗi thao tác ghi chạy trong 1 phiên bản của VersionClock:
+ * lịch/hóa đơn mới được nối vào ChunkedLog; đổi trạng thái lịch và thanh toán được ghi lại (phiên bản +
+ * giá trị cũ) TRƯỚC khi sửa đối tượng sống, nên bản chụp ở phiên bản V dựng lại được đúng giá trị tại V
+ * mà không chặn luồng ghi. Lịch sử cũ hơn bản chụp đang mở cũ nhất được dọn dần ngay trên luồng ghi.
+ */
+final class VersionedStore {
+    static final int PRUNE_EVERY = 4096;
+
+    /** 1 lần đổi trạng thái: trạng thái trước đó, mới nhất đứng đầu chuỗi */
+    private static final class StatusChange {
+        final long version;
+        final AppointmentStatus before;
+        final StatusChange older;
+        StatusChange(long version, AppointmentStatus before, StatusChange older) { this.version = version; this.before = before; this.older = older; }
+    }
+
+    private final VersionClock clock = new VersionClock();
+    private volatile ChunkedLog<Appointment> appointments;
+    private volatile ChunkedLog<Invoice> invoices;
+    private final Map<UUID, StatusChange> statusHistory = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> paidAt = new ConcurrentHashMap<>();
+    // phiên bản lớn nhất từng ghi vào lịch sử: bản chụp mới hơn mốc này khỏi phải tra map
+    private final AtomicLong lastStatusChange = new AtomicLong(), lastPaid = new AtomicLong();
+    // bản chụp đang mở -> phiên bản sàn của nó (không dọn lịch sử mới hơn sàn)
+    private final Map<ReadSnapshot, Long> open = new ConcurrentHashMap<>();
+    private final AtomicInteger sincePrune = new AtomicInteger();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+
+    VersionedStore(List<Appointment> appointments, List<Invoice> invoices) { reset(appointments, invoices); }
+
+    long begin() { return clock.begin(); }
+    void commit(long version) { clock.commit(version); }
+
+    void onAppointment(Appointment a, long version) { appointments.append(a, version); }
+    void onInvoice(Invoice inv, long version) { invoices.append(inv, version); }
+
+    /** Gọi trước a.setStatus (dưới khóa bác sĩ nên mỗi lịch chỉ 1 luồng ghi) */
+    void beforeStatus(Appointment a, long version) {
+        AppointmentStatus old = a.getStatus();
+        statusHistory.compute(a.getId(), (k, older) -> new StatusChange(version, old, older));
+        lastStatusChange.accumulateAndGet(version, Math::max);
+        maybePrune();
+    }
+
+    /** Gọi trước inv.markPaid */
+    void beforePaid(Invoice inv, long version) {
+        paidAt.put(inv.getId(), version);
+        lastPaid.accumulateAndGet(version, Math::max);
+        maybePrune();
+    }
+
+    /** Dựng lại log sau khi gỡ dòng (lưu trữ tháng cũ); gọi dưới write-lock nên không có thao tác dở */
+    void reset(List<Appointment> appointments, List<Invoice> invoices) {
+        this.appointments = new ChunkedLog<>(appointments, 0);
+        this.invoices = new ChunkedLog<>(invoices, 0);
+    }
+
+    ReadSnapshot snapshot(List<Doctor> doctors, List<MedicalService> services) {
+        // đăng ký sàn trước khi đọc phiên bản để lượt dọn chạy song song không xóa lịch sử mình cần
+        ReadSnapshot s = new ReadSnapshot(this, doctors, services);
+        open.put(s, clock.published());
+        s.capture(clock.published(), appointments.view(), invoices.view());
+        return s;
+    }
+
+    void release(ReadSnapshot s) { open.remove(s); }
+
+    /** Trạng thái của a tại phiên bản version: đọc giá trị sống trước, rồi lùi theo lịch sử */
+    AppointmentStatus statusAt(Appointment a, long version) {
+        AppointmentStatus s = a.getStatus();
+        if (lastStatusChange.get() <= version) return s;
+        for (StatusChange c = statusHistory.get(a.getId()); c != null && c.version > version; c = c.older) s = c.before;
+        return s;
+    }
+
+    boolean paidAt(Invoice inv, long version) {
+        if (!inv.isPaid()) return false;
+        if (lastPaid.get() <= version) return true;
+        Long at = paidAt.get(inv.getId());
+        return at == null || at <= version;
+    }
+
+    // lịch sử ở phiên bản <= sàn của mọi bản chụp đang mở không còn ai cần
+    private void maybePrune() {
+        if (sincePrune.incrementAndGet() < PRUNE_EVERY || !pruning.compareAndSet(false, true)) return;
+        try {
+            sincePrune.set(0);
+            long floor = clock.published();
+            for (long v : open.values()) floor = Math.min(floor, v);
+            long f = floor;
+            for (UUID id : statusHistory.keySet()) statusHistory.computeIfPresent(id, (k, c) -> trim(c, f));
+            paidAt.values().removeIf(v -> v <= f);
+        } finally {
+            pruning.set(false);
+        }
+    }
+
+    // bỏ các nút có phiên bản <= floor (chuỗi giảm dần nên là cả phần đuôi)
+    private static StatusChange trim(StatusChange c, long floor) {
+        if (c == null || c.version <= floor) return null;
+        StatusChange older = trim(c.older, floor);
+        return older == c.older ? c : new StatusChange(c.version, c.before, older);
+    }
+}
+
+/**
+ * Bản chụp đọc tại 1 phiên bản: đúng trạng thái lúc chụp dù luồng khác vẫn đặt/hủy/thanh toán, và
+ * không giữ khóa nào nên báo cáo chạy lâu không làm chậm đặt lịch. Chụp O(1) (dùng chung khối log),
+ * phải close() (try-with-resources) để phần lịch sử nó giữ được dọn. Chỉ gồm dữ liệu đang nạp,
+ * không gồm các tháng đã lưu trữ.
+ */
+final class ReadSnapshot implements AutoCloseable {
+    private final VersionedStore store;
+    private final List<Doctor> doctors;
+    private final List<MedicalService> services;
+    private final LocalDateTime takenAt = LocalDateTime.now();
+    private long version;
+    private ChunkedLog.View<Appointment> appointments;
+    private ChunkedLog.View<Invoice> invoices;
+
+    ReadSnapshot(VersionedStore store, List<Doctor> doctors, List<MedicalService> services) {
+        this.store = store;
+        this.doctors = Collections.unmodifiableList(doctors);
+        this.services = Collections.unmodifiableList(services);
+    }
+
+    void capture(long version, ChunkedLog.View<Appointment> appointments, ChunkedLog.View<Invoice> invoices) {
+        this.version = version;
+        this.appointments = appointments;
+        this.invoices = invoices;
+    }
+
+    long getVersion() { return version; }
+    LocalDateTime getTakenAt() { return takenAt; }
+    List<Doctor> getDoctors() { return doctors; }
+    List<MedicalService> getServices() { return services; }
+
+    /** Lịch hẹn tại phiên bản chụp: mỗi phần tử là bản sao mang trạng thái lúc chụp */
+    Stream<Appointment> appointments() { return appointments(a -> true); }
+
+    /**
+     * Như appointments() nhưng lọc trước khi chép; filter chỉ được đọc các trường không đổi
+     * (id, bệnh nhân, bác sĩ, dịch vụ, giờ), không đọc trạng thái.
+     */
+    Stream<Appointment> appointments(Predicate<Appointment> filter) {
+        return appointments.upTo(version).filter(filter).map(a -> new Appointment(a.getId(), a.getPatientId(),
+                a.getDoctorId(), a.getServiceId(), a.getStart(), a.getEnd(), store.statusAt(a, version)));
+    }
+
+    /** Hóa đơn tại phiên bản chụp; hóa đơn chưa thanh toán lúc chụp được chép (đối tượng sống có thể đổi) */
+    Stream<Invoice> invoices() {
+        return invoices.upTo(version).map(inv -> store.paidAt(inv, version) ? inv
+                : new Invoice(inv.getId(), inv.getAppointmentId(), inv.getAmount(), inv.getCreatedAt(), false));
+    }
+
+    @Override
+    public void close() { store.release(this); }
+}
@@ -0,0 +1,236 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Snapshot nhị phân toàn bộ dữ liệu để khởi động nhanh (CSV vẫn là định dạng nhập/xuất).
+ *
+ * Bố cục (big-endian):
+ *   header : magic "BTLS" | version:short
+ *   strings: count:int | (len:int, utf8 bytes)*        -- tên, SĐT, địa chỉ, BHYT...; -1 = null
+ *   patients    : count | (uuid, name, phone, address, insurance)*
+ *   doctors     : count | (uuid, name, phone, address, department:byte)*
+ *   services    : count | (type:byte, uuid, name, baseCost:double, duration:int)*
+ *   appointments: count | (uuid, patient, doctor, service, start:int, end:int, status:byte)*
+ *   invoices    : count | (uuid, appointment, amount:double, createdAt:int, paid:byte)*
+ * UUID = 2 long, thời gian = số phút kể từ epoch (UTC), enum = ordinal, chuỗi = chỉ số trong bảng chuỗi.
+ */
+final class BinarySnapshot {
+    private BinarySnapshot() {}
+
+    static final int MAGIC = 0x42544C53; // "BTLS"
+    static final short VERSION = 1;
+
+    // mã loại dịch vụ
+    private static final byte EXAMINATION = 0, TEST = 1, SURGERY = 2;
+
+    static void write(String path, AppointmentManager mgr) {
+        List<Patient> patients = mgr.getPatients();
+        List<Doctor> doctors = mgr.getDoctors();
+        List<MedicalService> services = mgr.getServices();
+        List<Appointment> appointments = mgr.getAppointments();
+        List<Invoice> invoices = mgr.getInvoices();
+
+        // gom bảng chuỗi trước, mỗi chuỗi chỉ ghi 1 lần
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (Patient p : patients) {
+            intern(strings, p.getFullName()); intern(strings, p.getPhone());
+            intern(strings, p.getAddress()); intern(strings, p.getInsuranceNumber());
+        }
+        for (Doctor d : doctors) {
+            intern(strings, d.getFullName()); intern(strings, d.getPhone()); intern(strings, d.getAddress());
+        }
+        for (MedicalService s : services) intern(strings, s.getName());
+
+        Path target = Paths.get(path).toAbsolutePath();
+        Path tmp = null;
+        try {
+            tmp = CsvStorage.tempFor(target);
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+
+                out.writeInt(strings.size());
+                for (String s : strings.keySet()) {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+
+                out.writeInt(patients.size());
+                for (Patient p : patients) {
+                    writeUuid(out, p.getId());
+                    out.writeInt(ref(strings, p.getFullName())); out.writeInt(ref(strings, p.getPhone()));
+                    out.writeInt(ref(strings, p.getAddress())); out.writeInt(ref(strings, p.getInsuranceNumber()));
+                }
+
+                out.writeInt(doctors.size());
+                for (Doctor d : doctors) {
+                    writeUuid(out, d.getId());
+                    out.writeInt(ref(strings, d.getFullName())); out.writeInt(ref(strings, d.getPhone()));
+                    out.writeInt(ref(strings, d.getAddress()));
+                    out.writeByte(d.getDepartment().ordinal());
+                }
+
+                out.writeInt(services.size());
+                for (MedicalService s : services) {
+                    out.writeByte(typeOf(s));
+                    writeUuid(out, s.getId());
+                    out.writeInt(ref(strings, s.getName()));
+                    out.writeDouble(s.getBaseCost());
+                    out.writeInt(s.getDurationMinutes());
+                }
+
+                out.writeInt(appointments.size());
+                for (Appointment a : appointments) {
+                    writeUuid(out, a.getId());
+                    writeUuid(out, a.getPatientId()); writeUuid(out, a.getDoctorId()); writeUuid(out, a.getServiceId());
+                    out.writeInt(toMinutes(a.getStart())); out.writeInt(toMinutes(a.getEnd()));
+                    out.writeByte(a.getStatus().ordinal());
+                }
+
+                out.writeInt(invoices.size());
+                for (Invoice inv : invoices) {
+                    writeUuid(out, inv.getId());
+                    writeUuid(out, inv.getAppointmentId());
+                    out.writeDouble(inv.getAmount());
+                    out.writeInt(toMinutes(inv.getCreatedAt()));
+                    out.writeByte(inv.isPaid() ? 1 : 0);
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            CsvStorage.deleteQuietly(tmp);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static AppointmentManager read(String path) {
+        // đọc hết vào bộ đệm heap thay vì map: vùng map chỉ được gỡ khi GC dọn, giữ file mở nên trên
+        // Windows lần ghi snapshot sau (ATOMIC_MOVE đè lên file này) bị từ chối
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Snapshot quá lớn (" + size + " byte): " + path);
+            buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) if (ch.read(buf) < 0) throw new EOFException(path);
+            buf.flip();
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+
+        if (buf.getInt() != MAGIC) throw new IllegalArgumentException("Không phải snapshot nhị phân: " + path);
+        short version = buf.getShort();
+        if (version != VERSION) throw new IllegalArgumentException("Phiên bản snapshot không hỗ trợ: " + version);
+
+        String[] strings = new String[buf.getInt()];
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int len = buf.getInt();
+            if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+            buf.get(scratch, 0, len);
+            strings[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        Department[] departments = Department.values();
+        AppointmentStatus[] statuses = AppointmentStatus.values();
+
+        int n = buf.getInt();
+        List<Patient> patients = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            patients.add(new Patient(readUuid(buf), str(strings, buf.getInt()), str(strings, buf.getInt()),
+                    str(strings, buf.getInt()), str(strings, buf.getInt())));
+        }
+
+        n = buf.getInt();
+        List<Doctor> doctors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            doctors.add(new Doctor(readUuid(buf), str(strings, buf.getInt()), str(strings, buf.getInt()),
+                    str(strings, buf.getInt()), departments[buf.get()]));
+        }
+
+        n = buf.getInt();
+        List<MedicalService> services = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            byte type = buf.get();
+            UUID id = readUuid(buf);
+            String name = str(strings, buf.getInt());
+            double base = buf.getDouble();
+            int dur = buf.getInt();
+            switch (type) {
+                case EXAMINATION -> services.add(new ExaminationService(id, name, base, dur));
+                case TEST -> services.add(new TestService(id, name, base, dur));
+                case SURGERY -> services.add(new SurgeryService(id, name, base, dur));
+                default -> throw new IllegalArgumentException("Loại dịch vụ không hợp lệ: " + type);
+            }
+        }
+
+        n = buf.getInt();
+        List<Appointment> appointments = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            appointments.add(new Appointment(readUuid(buf), readUuid(buf), readUuid(buf), readUuid(buf),
+                    fromMinutes(buf.getInt()), fromMinutes(buf.getInt()), statuses[buf.get()]));
+        }
+
+        n = buf.getInt();
+        List<Invoice> invoices = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            invoices.add(new Invoice(readUuid(buf), readUuid(buf), buf.getDouble(),
+                    fromMinutes(buf.getInt()), buf.get() != 0));
+        }
+
+        return new AppointmentManager(patients, doctors, services, appointments, invoices);
+    }
+
+    // ===== bộ chuyển đổi 2 chiều CSV <-> nhị phân =====
+    // thay đổi còn trong nhật ký (chưa gộp vào file nguồn) được phát lại trước khi ghi định dạng kia;
+    // nhật ký giữ nguyên vì bản ghi idempotent, phát lại chồng lên file mới vẫn cho cùng kết quả
+    static void csvToBinary(String binPath) {
+        AppointmentManager mgr = AppointmentManager.loadCsv();
+        mgr.replayJournal(Paths.get(""));
+        write(binPath, mgr);
+    }
+
+    static void binaryToCsv(String binPath) {
+        AppointmentManager mgr = read(binPath);
+        mgr.replayJournal(Paths.get(""));
+        mgr.saveCsv();
+    }
+
+    /** java BinarySnapshot csv2bin|bin2csv [file.bin] */
+    public static void main(String[] args) {
+        String bin = args.length > 1 ? args[1] : Constants.SNAPSHOT_BIN;
+        if (args.length > 0 && "csv2bin".equals(args[0])) csvToBinary(bin);
+        else if (args.length > 0 && "bin2csv".equals(args[0])) binaryToCsv(bin);
+        else System.out.println("Cách dùng: java BinarySnapshot csv2bin|bin2csv [file.bin]");
+    }
+
+    // ===== helpers =====
+    private static void intern(Map<String, Integer> strings, String s) {
+        if (s != null) strings.putIfAbsent(s, strings.size());
+    }
+    private static int ref(Map<String, Integer> strings, String s) { return s == null ? -1 : strings.get(s); }
+    private static String str(String[] strings, int ref) { return ref < 0 ? null : strings[ref]; }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+    private static UUID readUuid(ByteBuffer buf) { return new UUID(buf.getLong(), buf.getLong()); }
+
+    static int toMinutes(LocalDateTime dt) { return (int) Math.floorDiv(dt.toEpochSecond(ZoneOffset.UTC), 60); }
+    static LocalDateTime fromMinutes(int minutes) { return LocalDateTime.ofEpochSecond(minutes * 60L, 0, ZoneOffset.UTC); }
+
+    private static byte typeOf(MedicalService s) {
+        if (s instanceof ExaminationService) return EXAMINATION;
+        if (s instanceof TestService) return TEST;
+        if (s instanceof SurgeryService) return SURGERY;
+        throw new IllegalArgumentException("Loại dịch vụ không hỗ trợ: " + s.getClass().getSimpleName());
+    }
+}
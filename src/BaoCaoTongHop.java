@@ -0,0 +1,200 @@
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Số liệu báo cáo được cộng dồn ngay khi book/cancel/complete/markPaid thay vì quét lại
+ * toàn bộ lịch hẹn, hóa đơn mỗi lần xem báo cáo. Dựng lại 1 lần khi nạp dữ liệu.
+ */
+final class ReportAggregates {
+
+    /** Bộ đếm theo bác sĩ: tổng số lịch và số lịch theo từng trạng thái */
+    static final class DoctorCounters {
+        final LongAdder total = new LongAdder();
+        final LongAdder[] byStatus = new LongAdder[AppointmentStatus.values().length];
+        DoctorCounters() { for (int i = 0; i < byStatus.length; i++) byStatus[i] = new LongAdder(); }
+        long total() { return total.sum(); }
+        long count(AppointmentStatus status) { return byStatus[status.ordinal()].sum(); }
+    }
+
+    private final Map<UUID, DoctorCounters> byDoctor = new ConcurrentHashMap<>();
+    // doanh thu theo tháng tạo hóa đơn: tổng phát sinh và phần đã thu
+    private final Map<YearMonth, DoubleAdder> billedByMonth = new ConcurrentHashMap<>();
+    private final Map<YearMonth, DoubleAdder> paidByMonth = new ConcurrentHashMap<>();
+
+    static ReportAggregates rebuild(List<Appointment> appointments, List<Invoice> invoices) {
+        ReportAggregates agg = new ReportAggregates();
+        for (Appointment a : appointments) agg.onAppointment(a);
+        for (Invoice inv : invoices) {
+            agg.onInvoice(inv);
+            if (inv.isPaid()) agg.onPaid(inv);
+        }
+        return agg;
+    }
+
+    // ===== cập nhật gia tăng =====
+    void onAppointment(Appointment a) {
+        DoctorCounters c = counters(a.getDoctorId());
+        c.total.increment();
+        c.byStatus[a.getStatus().ordinal()].increment();
+    }
+
+    void onStatusChange(Appointment a, AppointmentStatus from, AppointmentStatus to) {
+        if (from == to) return;
+        DoctorCounters c = counters(a.getDoctorId());
+        c.byStatus[from.ordinal()].decrement();
+        c.byStatus[to.ordinal()].increment();
+    }
+
+    void onInvoice(Invoice inv) {
+        bucket(billedByMonth, inv.getCreatedAt()).add(inv.getAmount());
+    }
+
+    void onPaid(Invoice inv) {
+        bucket(paidByMonth, inv.getCreatedAt()).add(inv.getAmount());
+    }
+
+    // bỏ 1 dòng đã được tính (vd. dòng trùng với phần đã lưu trữ theo tháng)
+    void onAppointmentRemoved(Appointment a) {
+        DoctorCounters c = counters(a.getDoctorId());
+        c.total.decrement();
+        c.byStatus[a.getStatus().ordinal()].decrement();
+    }
+
+    void onInvoiceRemoved(Invoice inv) {
+        bucket(billedByMonth, inv.getCreatedAt()).add(-inv.getAmount());
+        if (inv.isPaid()) bucket(paidByMonth, inv.getCreatedAt()).add(-inv.getAmount());
+    }
+
+    /** Cộng dồn số liệu của phần khác (vd. tóm tắt các tháng đã lưu trữ) */
+    void merge(ReportAggregates other) {
+        other.byDoctor.forEach((id, o) -> {
+            DoctorCounters c = counters(id);
+            c.total.add(o.total());
+            for (int i = 0; i < c.byStatus.length; i++) c.byStatus[i].add(o.byStatus[i].sum());
+        });
+        other.billedByMonth.forEach((ym, v) -> billedByMonth.computeIfAbsent(ym, k -> new DoubleAdder()).add(v.sum()));
+        other.paidByMonth.forEach((ym, v) -> paidByMonth.computeIfAbsent(ym, k -> new DoubleAdder()).add(v.sum()));
+    }
+
+    // ===== tóm tắt dạng dòng CSV =====
+    static final String COUNT = "COUNT";   // COUNT,doctorId,<số lịch theo từng trạng thái>
+    static final String BILLED = "BILLED"; // BILLED,yyyy-MM,số tiền
+    static final String PAID = "PAID";     // PAID,yyyy-MM,số tiền
+
+    List<String> toLines() {
+        List<String> lines = new ArrayList<>();
+        byDoctor.forEach((id, c) -> {
+            StringBuilder sb = new StringBuilder(COUNT).append(',').append(id);
+            for (LongAdder n : c.byStatus) sb.append(',').append(n.sum());
+            lines.add(sb.toString());
+        });
+        billedByMonth.forEach((ym, v) -> lines.add(BILLED + "," + ym + "," + v.sum()));
+        paidByMonth.forEach((ym, v) -> lines.add(PAID + "," + ym + "," + v.sum()));
+        return lines;
+    }
+
+    /** Cộng 1 dòng tóm tắt; false nếu không phải dòng tóm tắt */
+    boolean readLine(String line) {
+        CsvLine c = new CsvLine(line);
+        switch (c.nextString()) {
+            case COUNT -> {
+                DoctorCounters dc = counters(c.nextUuid());
+                for (LongAdder n : dc.byStatus) {
+                    long v = c.nextInt();
+                    n.add(v);
+                    dc.total.add(v);
+                }
+            }
+            case BILLED -> billedByMonth.computeIfAbsent(YearMonth.parse(c.nextString()), k -> new DoubleAdder()).add(c.nextDouble());
+            case PAID -> paidByMonth.computeIfAbsent(YearMonth.parse(c.nextString()), k -> new DoubleAdder()).add(c.nextDouble());
+            default -> { return false; }
+        }
+        return true;
+    }
+
+    // ===== đọc báo cáo =====
+    /** k bác sĩ nhiều lịch nhất: O(d log k) trên số bác sĩ, không quét lịch hẹn */
+    List<Map.Entry<UUID, Long>> topDoctors(int k) {
+        if (k < 1) throw new IllegalArgumentException("Số bác sĩ cần lấy phải >= 1: " + k);
+        PriorityQueue<Map.Entry<UUID, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<UUID, DoctorCounters> e : byDoctor.entrySet()) {
+            long total = e.getValue().total();
+            if (total == 0) continue;
+            if (heap.size() < k) heap.add(Map.entry(e.getKey(), total));
+            else if (heap.peek().getValue() < total) { heap.poll(); heap.add(Map.entry(e.getKey(), total)); }
+        }
+        List<Map.Entry<UUID, Long>> top = new ArrayList<>(heap);
+        top.sort(Map.Entry.<UUID, Long>comparingByValue().reversed());
+        return top;
+    }
+
+    double monthlyRevenue(int year, int month) { return sum(billedByMonth, YearMonth.of(year, month)); }
+    double monthlyPaidRevenue(int year, int month) { return sum(paidByMonth, YearMonth.of(year, month)); }
+
+    long appointmentCount(UUID doctorId) {
+        DoctorCounters c = byDoctor.get(doctorId);
+        return c == null ? 0 : c.total();
+    }
+    long appointmentCount(UUID doctorId, AppointmentStatus status) {
+        DoctorCounters c = byDoctor.get(doctorId);
+        return c == null ? 0 : c.count(status);
+    }
+
+    /**
+     * Đối chiếu với số liệu tính lại từ đầu; trả về danh sách chênh lệch (rỗng = khớp).
+     * Tiền được so với sai số 0.5 đồng do cộng dồn số thực theo thứ tự khác nhau.
+     */
+    List<String> verify(List<Appointment> appointments, List<Invoice> invoices) {
+        return verify(appointments, invoices, new ReportAggregates());
+    }
+
+    /** Như trên, cộng thêm phần số liệu không nằm trong 2 danh sách (vd. các tháng đã lưu trữ) */
+    List<String> verify(List<Appointment> appointments, List<Invoice> invoices, ReportAggregates base) {
+        ReportAggregates full = rebuild(appointments, invoices);
+        full.merge(base);
+        List<String> diffs = new ArrayList<>();
+        Set<UUID> doctorIds = new HashSet<>(byDoctor.keySet());
+        doctorIds.addAll(full.byDoctor.keySet());
+        for (UUID id : doctorIds) {
+            if (appointmentCount(id) != full.appointmentCount(id)) {
+                diffs.add("Bác sĩ " + id + ": " + appointmentCount(id) + " lịch, tính lại = " + full.appointmentCount(id));
+            }
+            for (AppointmentStatus st : AppointmentStatus.values()) {
+                if (appointmentCount(id, st) != full.appointmentCount(id, st)) {
+                    diffs.add("Bác sĩ " + id + " " + st + ": " + appointmentCount(id, st) + ", tính lại = " + full.appointmentCount(id, st));
+                }
+            }
+        }
+        compareMonths("Doanh thu", billedByMonth, full.billedByMonth, diffs);
+        compareMonths("Đã thu", paidByMonth, full.paidByMonth, diffs);
+        return diffs;
+    }
+
+    // ===== helpers =====
+    private DoctorCounters counters(UUID doctorId) {
+        return byDoctor.computeIfAbsent(doctorId, k -> new DoctorCounters());
+    }
+
+    private static DoubleAdder bucket(Map<YearMonth, DoubleAdder> buckets, LocalDateTime at) {
+        return buckets.computeIfAbsent(YearMonth.from(at), k -> new DoubleAdder());
+    }
+
+    private static double sum(Map<YearMonth, DoubleAdder> buckets, YearMonth ym) {
+        DoubleAdder a = buckets.get(ym);
+        return a == null ? 0 : a.sum();
+    }
+
+    private static void compareMonths(String label, Map<YearMonth, DoubleAdder> mine,
+                                      Map<YearMonth, DoubleAdder> full, List<String> diffs) {
+        Set<YearMonth> months = new TreeSet<>(mine.keySet());
+        months.addAll(full.keySet());
+        for (YearMonth ym : months) {
+            double a = sum(mine, ym), b = sum(full, ym);
+            if (Math.abs(a - b) > 0.5) diffs.add(label + " " + ym + ": " + a + ", tính lại = " + b);
+        }
+    }
+}
@@ -5,6 +5,8 @@ abstract class MedicalService implements Persistable {
     protected String name;
     protected double baseCost;      // chi phí cơ bản
     protected int durationMinutes;  // thời lượng dự kiến
+    // chi phí chi tiết đã tính; NaN = chưa tính hoặc giá gốc/thời lượng vừa đổi
+    private volatile double cost = Double.NaN;
 
     protected MedicalService(){ this.id = UUID.randomUUID(); }
     protected MedicalService(UUID id, String name, double baseCost, int durationMinutes){
@@ -17,8 +19,25 @@ abstract class MedicalService implements Persistable {
     public double getBaseCost(){ return baseCost; }
     public int getDurationMinutes(){ return durationMinutes; }
 
+    public void setName(String name){ this.name = name; }
+    public synchronized void setBaseCost(double baseCost){ this.baseCost = baseCost; cost = Double.NaN; }
+    public synchronized void setDurationMinutes(int durationMinutes){ this.durationMinutes = durationMinutes; cost = Double.NaN; }
+
+    /**
+     * Chi phí chi tiết, chỉ tính lần đầu (và sau khi đổi giá gốc/thời lượng). Tính lại nằm cùng khóa
+     * với setter nên không thể ghi đè kết quả cũ lên lần đổi mới hơn.
+     */
+    public final double getCost(){
+        double c = cost;
+        if (!Double.isNaN(c)) return c;
+        synchronized (this) {
+            if (Double.isNaN(cost)) cost = computeCost();
+            return cost;
+        }
+    }
+
     /** Mỗi loại dịch vụ tự tính chi phí chi tiết */
-    public abstract double getCost();
+    protected abstract double computeCost();
 
     @Override
     public String toCSV() {
@@ -26,15 +45,14 @@ abstract class MedicalService implements Persistable {
         return getClass().getSimpleName() + "," + id + "," + esc(name) + "," + baseCost + "," + durationMinutes + "," + getCost();
     }
     static String esc(String s){ return s==null? "" : s.replace(",", "\\,"); }
-    static String unesc(String s){ return s.replace("\\,", ","); }
 
     public static MedicalService fromCSV(String line){
-        String[] p = line.split(",", -1);
-        String type = p[0];
-        UUID id = UUID.fromString(p[1]);
-        String name = unesc(p[2]);
-        double base = Double.parseDouble(p[3]);
-        int dur = Integer.parseInt(p[4]);
+        CsvLine c = new CsvLine(line);
+        String type = c.nextString();
+        UUID id = c.nextUuid();
+        String name = c.nextString();
+        double base = c.nextDouble();
+        int dur = c.nextInt();
         switch (type){
             case "ExaminationService": return new ExaminationService(id, name, base, dur);
             case "SurgeryService":     return new SurgeryService(id, name, base, dur);
@@ -50,7 +68,7 @@ class ExaminationService extends MedicalService {
     public ExaminationService(UUID id, String name, double baseCost, int durationMinutes){
         super(id, name, baseCost, durationMinutes);
     }
-    @Override public double getCost(){ return baseCost; }
+    @Override protected double computeCost(){ return baseCost; }
 }
 
 /** Phẫu thuật: phụ phí theo thời lượng */
@@ -59,7 +77,7 @@ class SurgeryService extends MedicalService {
     public SurgeryService(UUID id, String name, double baseCost, int durationMinutes){
         super(id, name, baseCost, durationMinutes);
     }
-    @Override public double getCost(){
+    @Override protected double computeCost(){
         double blocks = Math.ceil(durationMinutes / 30.0); // 500k mỗi 30'
         return baseCost + blocks * 500_000;
     }
@@ -71,5 +89,5 @@ class TestService extends MedicalService {
     public TestService(UUID id, String name, double baseCost, int durationMinutes){
         super(id, name, baseCost, durationMinutes);
     }
-    @Override public double getCost(){ return baseCost * 1.15; }
+    @Override protected double computeCost(){ return baseCost * 1.15; }
 }
\ No newline at end of file
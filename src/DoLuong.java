@@ -0,0 +1,308 @@
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Histogram độ trễ kiểu HDR: mỗi lũy thừa của 2 chia thành 32 ô đều nhau nên sai số tương đối
+ * ~3% ở mọi độ lớn, từ vài ns tới hàng giờ, trong 1 mảng cố định. Ghi không khóa, không cấp phát.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    long count() { return count.sum(); }
+    long max() { return max.get(); }
+    double mean() { long n = count(); return n == 0 ? 0 : (double) sum.sum() / n; }
+
+    /** Giá trị (ns) tại phân vị q (0..1), lấy giữa ô chứa nó */
+    long percentile(double q) {
+        long n = count();
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(max(), (lowest(i) + highest(i)) / 2);
+        }
+        return max();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset(); sum.reset(); max.reset();
+    }
+
+    private static int bucket(long v) {
+        if (v < SUB) return (int) v;
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (msb - SUB_BITS)) & (SUB - 1);
+        return (msb - SUB_BITS + 1) * SUB + sub;
+    }
+
+    private static long lowest(int i) {
+        if (i < SUB) return i;
+        int msb = i / SUB + SUB_BITS - 1;
+        return (1L << msb) | ((long) (i % SUB) << (msb - SUB_BITS));
+    }
+
+    private static long highest(int i) {
+        if (i < SUB) return i;
+        int msb = i / SUB + SUB_BITS - 1;
+        return lowest(i) + (1L << (msb - SUB_BITS)) - 1;
+    }
+}
+
+/**
+ * Bộ đếm + timer dùng chung, bật bằng -Dbtl.metrics=true. Khi tắt, Metrics.start()/stop()/increment()
+ * chỉ còn 1 phép kiểm tra hằng static final nên JIT bỏ hẳn, không gọi System.nanoTime().
+ *
+ *   static final LatencyHistogram SAVE = Metrics.timer("csv.save");
+ *   long t0 = Metrics.start(); ...; Metrics.stop(SAVE, t0);
+ */
+final class Metrics {
+    private Metrics() {}
+
+    static final boolean ENABLED = Constants.METRICS_ENABLED;
+
+    /** Xem số đo qua JMX (jconsole/VisualVM: btl:type=Metrics); JMX chỉ nhận interface public */
+    public interface MetricsMXBean {
+        String[] getTimerNames();
+        String[] getCounterNames();
+        long getCount(String name);
+        /** Phân vị q (0..1) của timer, đơn vị micro giây */
+        double getPercentileMicros(String timer, double q);
+        String getSnapshotJson();
+        void reset();
+    }
+
+    private static final Map<String, LatencyHistogram> TIMERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+
+    static LatencyHistogram timer(String name) { return TIMERS.computeIfAbsent(name, k -> new LatencyHistogram()); }
+    static LongAdder counter(String name) { return COUNTERS.computeIfAbsent(name, k -> new LongAdder()); }
+
+    static long start() { return ENABLED ? System.nanoTime() : 0; }
+    static void stop(LatencyHistogram timer, long t0) { if (ENABLED) timer.record(System.nanoTime() - t0); }
+    static void increment(LongAdder counter) { if (ENABLED) counter.increment(); }
+
+    static void reset() {
+        TIMERS.values().forEach(LatencyHistogram::reset);
+        COUNTERS.values().forEach(LongAdder::reset);
+    }
+
+    /** {"timestamp":..., "counters":{...}, "timers":{"book":{"count":..,"p50Us":..,...}}} */
+    static String toJson() {
+        StringBuilder sb = new StringBuilder("{\"timestamp\": \"").append(LocalDateTime.now()).append("\", \"counters\": {");
+        int i = 0;
+        for (Map.Entry<String, LongAdder> e : COUNTERS.entrySet()) {
+            sb.append(i++ == 0 ? "" : ", ").append('"').append(e.getKey()).append("\": ").append(e.getValue().sum());
+        }
+        sb.append("}, \"timers\": {");
+        i = 0;
+        for (Map.Entry<String, LatencyHistogram> e : TIMERS.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            sb.append(i++ == 0 ? "" : ", ").append(String.format(Locale.ROOT,
+                    "\"%s\": {\"count\": %d, \"meanUs\": %.1f, \"p50Us\": %.1f, \"p99Us\": %.1f, \"p999Us\": %.1f, \"maxUs\": %.1f}",
+                    e.getKey(), h.count(), h.mean() / 1e3, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                    h.percentile(0.999) / 1e3, h.max() / 1e3));
+        }
+        return sb.append("}}").toString();
+    }
+
+    /** Bảng chữ cho console/log */
+    static String toText() {
+        StringBuilder sb = new StringBuilder();
+        COUNTERS.forEach((name, c) -> sb.append(String.format("%-28s %12d%n", name, c.sum())));
+        TIMERS.forEach((name, h) -> sb.append(String.format(Locale.ROOT,
+                "%-28s n=%-10d p50=%9.1fus p99=%9.1fus p999=%9.1fus max=%9.1fus%n", name, h.count(),
+                h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3, h.percentile(0.999) / 1e3, h.max() / 1e3)));
+        return sb.toString();
+    }
+
+    /** Ghi snapshot JSON ra file (nguyên tử) mỗi periodSeconds giây trên luồng nền */
+    static ScheduledExecutorService startDumping(String path, long periodSeconds) {
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleAtFixedRate(() -> {
+            try {
+                CsvStorage.saveLines(path, List.of(toJson()));
+            } catch (RuntimeException e) {
+                System.err.println("Không ghi được số đo: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return ses;
+    }
+
+    static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("btl:type=Metrics");
+            var server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) server.registerMBean(new MetricsBean(), name);
+        } catch (Exception e) {
+            throw new IllegalStateException("Không đăng ký được MBean số đo", e);
+        }
+    }
+
+    private static final class MetricsBean implements MetricsMXBean {
+        @Override public String[] getTimerNames() { return TIMERS.keySet().toArray(new String[0]); }
+        @Override public String[] getCounterNames() { return COUNTERS.keySet().toArray(new String[0]); }
+        @Override public long getCount(String name) {
+            LongAdder c = COUNTERS.get(name);
+            if (c != null) return c.sum();
+            LatencyHistogram h = TIMERS.get(name);
+            return h == null ? 0 : h.count();
+        }
+        @Override public double getPercentileMicros(String timer, double q) {
+            LatencyHistogram h = TIMERS.get(timer);
+            return h == null ? 0 : h.percentile(q) / 1e3;
+        }
+        @Override public String getSnapshotJson() { return toJson(); }
+        @Override public void reset() { Metrics.reset(); }
+    }
+}
+
+/**
+ * Decorator đo thời gian từng thao tác của 1 Schedulable và đếm số lần trùng lịch.
+ * Dùng MeteredScheduler.wrap(manager): khi tắt số đo trả về chính manager, không thêm lớp gọi nào.
+ */
+final class MeteredScheduler implements Schedulable {
+    private static final LatencyHistogram BOOK = Metrics.timer("book");
+    private static final LatencyHistogram BOOK_ALL = Metrics.timer("bookAll");
+    private static final LatencyHistogram FREE_SLOTS = Metrics.timer("findFreeSlots");
+    private static final LatencyHistogram CANCEL = Metrics.timer("cancel");
+    private static final LatencyHistogram COMPLETE = Metrics.timer("complete");
+    private static final LatencyHistogram LIST = Metrics.timer("listAppointmentsByDoctor");
+    private static final LatencyHistogram IS_AVAILABLE = Metrics.timer("isAvailable");
+    private static final LongAdder CONFLICTS = Metrics.counter("book.conflict");
+    private static final LongAdder BATCH_CONFLICTS = Metrics.counter("bookAll.conflict");
+    private static final LongAdder ERRORS = Metrics.counter("schedule.error");
+
+    private final Schedulable delegate;
+
+    MeteredScheduler(Schedulable delegate) { this.delegate = delegate; }
+
+    static Schedulable wrap(Schedulable s) { return Metrics.ENABLED ? new MeteredScheduler(s) : s; }
+
+    @Override
+    public Appointment book(UUID patientId, UUID doctorId, UUID serviceId, LocalDateTime start) {
+        long t0 = System.nanoTime();
+        try {
+            return delegate.book(patientId, doctorId, serviceId, start);
+        } catch (AppointmentConflictException e) {
+            CONFLICTS.increment();
+            throw e;
+        } catch (RuntimeException e) {
+            ERRORS.increment();
+            throw e;
+        } finally {
+            BOOK.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public List<BookingResult> bookAll(List<BookingRequest> requests, boolean atomic) {
+        long t0 = System.nanoTime();
+        try {
+            List<BookingResult> results = delegate.bookAll(requests, atomic);
+            for (BookingResult r : results) if (r.getStatus() == BookingStatus.CONFLICT) BATCH_CONFLICTS.increment();
+            return results;
+        } finally {
+            BOOK_ALL.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public List<FreeSlot> findFreeSlots(UUID doctorId, MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            return delegate.findFreeSlots(doctorId, service, from, to, limit);
+        } finally {
+            FREE_SLOTS.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public List<FreeSlot> findFreeSlots(Department department, MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        long t0 = System.nanoTime();
+        try {
+            return delegate.findFreeSlots(department, service, from, to, limit);
+        } finally {
+            FREE_SLOTS.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public void cancel(UUID appointmentId) {
+        long t0 = System.nanoTime();
+        try {
+            delegate.cancel(appointmentId);
+        } finally {
+            CANCEL.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public void complete(UUID appointmentId) {
+        long t0 = System.nanoTime();
+        try {
+            delegate.complete(appointmentId);
+        } finally {
+            COMPLETE.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public List<Appointment> listAppointmentsByDoctor(UUID doctorId) {
+        long t0 = System.nanoTime();
+        try {
+            return delegate.listAppointmentsByDoctor(doctorId);
+        } finally {
+            LIST.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public List<Appointment> listAppointmentsByDoctor(UUID doctorId, LocalDateTime from, LocalDateTime to) {
+        long t0 = System.nanoTime();
+        try {
+            return delegate.listAppointmentsByDoctor(doctorId, from, to);
+        } finally {
+            LIST.record(System.nanoTime() - t0);
+        }
+    }
+
+    @Override
+    public boolean isAvailable(UUID doctorId, LocalDateTime start, LocalDateTime end) {
+        long t0 = System.nanoTime();
+        try {
+            return delegate.isAvailable(doctorId, start, end);
+        } finally {
+            IS_AVAILABLE.record(System.nanoTime() - t0);
+        }
+    }
+}
@@ -57,11 +57,10 @@ class Patient extends Person {
         return id + "," + esc(fullName) + "," + esc(phone) + "," + esc(address) + "," + esc(insuranceNumber);
     }
     public static Patient fromCSV(String line) {
-        String[] p = line.split(",", -1);
-        return new Patient(UUID.fromString(p[0]), unesc(p[1]), unesc(p[2]), unesc(p[3]), unesc(p[4]));
+        CsvLine c = new CsvLine(line);
+        return new Patient(c.nextUuid(), c.nextString(), c.nextString(), c.nextString(), c.nextString());
     }
     static String esc(String s){ return s==null? "" : s.replace(",", "\\,"); }
-    static String unesc(String s){ return s.replace("\\,", ","); }
 }
 
 class Doctor extends Person {
@@ -81,9 +80,8 @@ class Doctor extends Person {
         return id + "," + esc(fullName) + "," + esc(phone) + "," + esc(address) + "," + department.name();
     }
     public static Doctor fromCSV(String line) {
-        String[] p = line.split(",", -1);
-        return new Doctor(UUID.fromString(p[0]), unesc(p[1]), unesc(p[2]), unesc(p[3]), Department.valueOf(p[4]));
+        CsvLine c = new CsvLine(line);
+        return new Doctor(c.nextUuid(), c.nextString(), c.nextString(), c.nextString(), c.nextEnum(Department.class));
     }
     static String esc(String s){ return s==null? "" : s.replace(",", "\\,"); }
-    static String unesc(String s){ return s.replace("\\,", ","); }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Khóa phân dải theo id: mỗi bác sĩ luôn rơi vào cùng 1 khóa, nên đặt lịch cùng bác sĩ
+ * được tuần tự hóa tuyệt đối còn các bác sĩ khác dải chạy song song trên nhiều lõi.
+ */
+final class StripedLocks {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    StripedLocks(int minStripes) {
+        int n = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        this.locks = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) locks[i] = new ReentrantLock();
+        this.mask = n - 1;
+    }
+
+    int stripeOf(UUID id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    ReentrantLock lockFor(UUID id) { return locks[stripeOf(id)]; }
+
+    /**
+     * Các dải (đã sắp xếp, không trùng) cho một nhóm id; khóa theo thứ tự này
+     * để nhiều luồng cùng giữ nhiều dải mà không bị deadlock.
+     */
+    int[] stripesOf(Collection<UUID> ids) {
+        return ids.stream().mapToInt(this::stripeOf).sorted().distinct().toArray();
+    }
+
+    void lockAll(int[] stripes) {
+        for (int s : stripes) locks[s].lock();
+    }
+
+    void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) locks[stripes[i]].unlock();
+    }
+}
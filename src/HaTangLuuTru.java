@@ -1,10 +1,41 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+/** Định dạng snapshot dùng khi lưu/nạp; CSV luôn đọc được để nhập dữ liệu */
+enum SnapshotFormat {
+    CSV,
+    BINARY
+}
+
+/** Mỗi tập dữ liệu là 1 file CSV; dùng để đánh dấu tập nào đã đổi kể từ lần ghi trước */
+enum DataFile {
+    PATIENTS(Constants.PATIENTS_CSV),
+    DOCTORS(Constants.DOCTORS_CSV),
+    SERVICES(Constants.SERVICES_CSV),
+    APPOINTMENTS(Constants.APPOINTMENTS_CSV),
+    INVOICES(Constants.INVOICES_CSV);
+
+    final String path;
+    DataFile(String path) { this.path = path; }
+}
+
 final class Constants {
     private Constants() {}
     static final String PATIENTS_CSV = "patients.csv";
@@ -12,29 +43,275 @@ final class Constants {
     static final String SERVICES_CSV = "services.csv";
     static final String APPOINTMENTS_CSV = "appointments.csv";
     static final String INVOICES_CSV = "invoices.csv";
+    static final String JOURNAL_LOG = "journal.log";
+    static final String SNAPSHOT_BIN = "snapshot.bin";
+    // chọn bằng -Dbtl.snapshot=BINARY
+    static final SnapshotFormat SNAPSHOT_FORMAT =
+            SnapshotFormat.valueOf(System.getProperty("btl.snapshot", SnapshotFormat.CSV.name()));
     static final String DATE_TIME_PATTERN = "yyyy-MM-dd HH:mm";
+    // giờ làm việc [WORK_START_HOUR, WORK_END_HOUR) dùng khi tìm lịch trống
+    static final int WORK_START_HOUR = 8;
+    static final int WORK_END_HOUR = 17;
+    // ngày nghỉ hằng tuần: không có khung trống, không tính vào giờ làm việc (báo cáo, dữ liệu giả lập)
+    static final DayOfWeek DAY_OFF = DayOfWeek.SUNDAY;
+    // lưu trữ theo tháng (bật bằng -Dbtl.history=true): tháng hiện tại + HOT_MONTHS - 1 tháng trước
+    // luôn nạp sẵn, các tháng cũ hơn nạp lười, giữ tối đa HISTORY_CACHE_MONTHS tháng trong bộ nhớ
+    static final boolean HISTORY_ENABLED = Boolean.getBoolean("btl.history");
+    static final String HISTORY_DIR = "history";
+    static final int HOT_MONTHS = 2;
+    static final int HISTORY_CACHE_MONTHS = 6;
+    // số đo độ trễ/bộ đếm (bật bằng -Dbtl.metrics=true), ghi snapshot JSON định kỳ
+    static final boolean METRICS_ENABLED = Boolean.getBoolean("btl.metrics");
+    static final String METRICS_JSON = "metrics.json";
+    static final int METRICS_DUMP_SECONDS = Integer.getInteger("btl.metrics.period", 60);
+    // ghi nền các file đã đổi, gộp mọi thay đổi trong mỗi khoảng (-Dbtl.persist.interval=ms)
+    static final long PERSIST_INTERVAL_MS = Long.getLong("btl.persist.interval", 1000);
 }
 
 final class DateTimeUtil {
     private DateTimeUtil() {}
+    // DateTimeFormatter bất biến, thread-safe -> dựng 1 lần cho mỗi pattern
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    /** Ngày làm việc = mọi ngày trừ Constants.DAY_OFF */
+    static boolean isWorkingDay(LocalDate day) { return day.getDayOfWeek() != Constants.DAY_OFF; }
+
+    static DateTimeFormatter formatter(String pattern) {
+        return FORMATTERS.computeIfAbsent(pattern, DateTimeFormatter::ofPattern);
+    }
     static LocalDateTime parse(String text, String pattern) {
-        return LocalDateTime.parse(text, java.time.format.DateTimeFormatter.ofPattern(pattern));
+        return LocalDateTime.parse(text, formatter(pattern));
     }
     static String format(LocalDateTime dt, String pattern) {
-        return dt.format(java.time.format.DateTimeFormatter.ofPattern(pattern));
+        if (pattern.equals(Constants.DATE_TIME_PATTERN) && dt.getYear() >= 1 && dt.getYear() <= 9999) return formatDefault(dt);
+        return dt.format(formatter(pattern));
+    }
+
+    // "yyyy-MM-dd HH:mm" xuất hiện ở mọi dòng CSV/nhật ký: ghi thẳng từng chữ số (cùng kiểu với
+    // CsvLine.nextDateTime khi đọc), nhanh hơn nhiều so với đi qua DateTimeFormatter. Chỉ cho năm
+    // 1..9999: ngoài khoảng đó "yyyy" (năm theo kỷ nguyên) in khác, để DateTimeFormatter lo
+    private static String formatDefault(LocalDateTime dt) {
+        byte[] b = new byte[16];
+        digits(b, 0, dt.getYear(), 4);
+        b[4] = '-';
+        digits(b, 5, dt.getMonthValue(), 2);
+        b[7] = '-';
+        digits(b, 8, dt.getDayOfMonth(), 2);
+        b[10] = ' ';
+        digits(b, 11, dt.getHour(), 2);
+        b[13] = ':';
+        digits(b, 14, dt.getMinute(), 2);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void digits(byte[] b, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            b[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
+
+/**
+ * Bộ tách 1 dòng CSV theo một lượt: đọc tuần tự từng trường, hiểu dấu phẩy thoát "\,",
+ * không tạo mảng String trung gian. UUID, số nguyên, enum và thời gian theo
+ * Constants.DATE_TIME_PATTERN được đọc thẳng từ ký tự của dòng.
+ */
+final class CsvLine {
+    private static final ClassValue<Object[]> ENUM_VALUES = new ClassValue<>() {
+        @Override protected Object[] computeValue(Class<?> type) { return type.getEnumConstants(); }
+    };
+
+    private final String line;
+    private int pos;      // đầu trường hiện tại
+    private int end;      // cuối trường hiện tại (không gồm dấu phẩy)
+    private boolean escaped;
+
+    CsvLine(String line) { this.line = line; }
+
+    /** Chốt ranh giới trường kế tiếp: [pos, end) */
+    private void scan() {
+        if (pos > line.length()) throw new IllegalArgumentException("Thiếu cột CSV: " + line);
+        int i = pos, n = line.length();
+        escaped = false;
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c == ',') break;
+            if (c == '\\' && i + 1 < n && line.charAt(i + 1) == ',') { escaped = true; i += 2; }
+            else i++;
+        }
+        end = i;
+    }
+    private void next() { pos = end + 1; }
+
+    String nextString() {
+        scan();
+        String s;
+        if (!escaped) s = line.substring(pos, end);
+        else {
+            StringBuilder sb = new StringBuilder(end - pos);
+            for (int i = pos; i < end; i++) {
+                char c = line.charAt(i);
+                if (c == '\\' && i + 1 < end && line.charAt(i + 1) == ',') { sb.append(','); i++; }
+                else sb.append(c);
+            }
+            s = sb.toString();
+        }
+        next();
+        return s;
+    }
+
+    UUID nextUuid() {
+        scan();
+        UUID id;
+        if (end - pos != 36) id = UUID.fromString(line.substring(pos, end));
+        else {
+            long msb = hex(pos, pos + 8) << 32 | hex(pos + 9, pos + 13) << 16 | hex(pos + 14, pos + 18);
+            long lsb = hex(pos + 19, pos + 23) << 48 | hex(pos + 24, pos + 36);
+            if (line.charAt(pos + 8) != '-' || line.charAt(pos + 13) != '-'
+                    || line.charAt(pos + 18) != '-' || line.charAt(pos + 23) != '-')
+                throw new IllegalArgumentException("UUID không hợp lệ: " + line.substring(pos, end));
+            id = new UUID(msb, lsb);
+        }
+        next();
+        return id;
+    }
+
+    int nextInt() {
+        scan();
+        int v = Integer.parseInt(line, pos, end, 10);
+        next();
+        return v;
+    }
+
+    double nextDouble() {
+        scan();
+        double v = Double.parseDouble(line.substring(pos, end));
+        next();
+        return v;
+    }
+
+    boolean nextBoolean() {
+        scan();
+        boolean v = end - pos == 4 && line.regionMatches(true, pos, "true", 0, 4);
+        next();
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    <E extends Enum<E>> E nextEnum(Class<E> type) {
+        scan();
+        for (Object o : ENUM_VALUES.get(type)) {
+            String name = ((E) o).name();
+            if (name.length() == end - pos && line.startsWith(name, pos)) { next(); return (E) o; }
+        }
+        throw new IllegalArgumentException("Giá trị " + type.getSimpleName() + " không hợp lệ: " + line.substring(pos, end));
+    }
+
+    /** Thời gian theo Constants.DATE_TIME_PATTERN (yyyy-MM-dd HH:mm) */
+    LocalDateTime nextDateTime() {
+        scan();
+        LocalDateTime dt;
+        if (end - pos == 16 && line.charAt(pos + 4) == '-' && line.charAt(pos + 7) == '-'
+                && line.charAt(pos + 10) == ' ' && line.charAt(pos + 13) == ':') {
+            dt = LocalDateTime.of(digits(pos, 4), digits(pos + 5, 2), digits(pos + 8, 2),
+                    digits(pos + 11, 2), digits(pos + 14, 2));
+        } else {
+            dt = DateTimeUtil.parse(line.substring(pos, end), Constants.DATE_TIME_PATTERN);
+        }
+        next();
+        return dt;
+    }
+
+    private long hex(int from, int to) {
+        long v = 0;
+        for (int i = from; i < to; i++) {
+            int d = Character.digit(line.charAt(i), 16);
+            if (d < 0) throw new IllegalArgumentException("UUID không hợp lệ: " + line.substring(pos, end));
+            v = v << 4 | d;
+        }
+        return v;
+    }
+
+    private int digits(int from, int len) {
+        int v = 0;
+        for (int i = from; i < from + len; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') throw new IllegalArgumentException("Thời gian không hợp lệ: " + line.substring(pos, end));
+            v = v * 10 + (c - '0');
+        }
+        return v;
     }
 }
 
 final class CsvStorage {
     private CsvStorage(){}
+    // đo ở lối vào (lớp tiện ích tĩnh nên không bọc decorator được); tắt số đo thì gần như không tốn gì
+    private static final LatencyHistogram SAVE = Metrics.timer("csv.save");
+    private static final LatencyHistogram LOAD = Metrics.timer("csv.load");
+    private static final LatencyHistogram LOAD_PARALLEL = Metrics.timer("csv.loadParallel");
+    private static final LongAdder ROWS_WRITTEN = Metrics.counter("csv.rowsWritten");
+    private static final LongAdder ROWS_READ = Metrics.counter("csv.rowsRead");
+
+    // ghi ra file tạm rồi đổi tên nguyên tử: sập giữa chừng vẫn còn nguyên file cũ
     static <T extends Persistable> void save(String path, List<T> items){
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(path))) {
-            for (T t : items) { bw.write(t.toCSV()); bw.newLine(); }
-        } catch (IOException e) { throw new UncheckedIOException(e); }
+        saveLines(path, () -> items.stream().map(Persistable::toCSV).iterator());
+    }
+    static void saveLines(String path, Iterable<String> lines){
+        long t0 = Metrics.start();
+        Path target = Paths.get(path).toAbsolutePath();
+        Path tmp = null;
+        try {
+            tmp = tempFor(target);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                         java.nio.channels.Channels.newOutputStream(ch), StandardCharsets.UTF_8))) {
+                long n = 0;
+                for (String line : lines) { bw.write(line); bw.newLine(); n++; }
+                bw.flush();
+                ch.force(true);
+                if (Metrics.ENABLED) ROWS_WRITTEN.add(n);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(tmp);
+            throw new UncheckedIOException(e);
+        } finally { Metrics.stop(SAVE, t0); }
+    }
+
+    /**
+     * File tạm riêng cho mỗi lần ghi, cạnh file đích (cùng ổ để đổi tên nguyên tử); 2 lượt ghi cùng file không dẫm lên nhau.
+     * Không dùng createTempFile vì nó tạo file quyền 0600 và file đích sau khi đổi tên sẽ mất quyền cũ: file tạm được
+     * tạo như file thường (theo umask) rồi chép quyền POSIX của file đích nếu đã có.
+     */
+    static Path tempFor(Path target) throws IOException {
+        while (true) {
+            Path tmp = target.resolveSibling(target.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.createFile(tmp);
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+            try {
+                if (Files.exists(target) && Files.getFileStore(tmp).supportsFileAttributeView(java.nio.file.attribute.PosixFileAttributeView.class)) {
+                    Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(target));
+                }
+            } catch (IOException e) {
+                deleteQuietly(tmp);
+                throw e;
+            }
+            return tmp;
+        }
+    }
+
+    static void deleteQuietly(Path p) {
+        if (p == null) return;
+        try { Files.deleteIfExists(p); } catch (IOException ignored) { }
     }
     static <T> List<T> load(String path, Function<String, T> mapper){
         Path p = Paths.get(path);
         if (!Files.exists(p)) return new ArrayList<>();
+        long t0 = Metrics.start();
         try (BufferedReader br = Files.newBufferedReader(p)) {
             List<T> result = new ArrayList<>();
             String line;
@@ -42,101 +319,1127 @@ final class CsvStorage {
                 if (line.trim().isEmpty()) continue;
                 result.add(mapper.apply(line));
             }
+            if (Metrics.ENABLED) ROWS_READ.add(result.size());
+            return result;
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        finally { Metrics.stop(LOAD, t0); }
+    }
+
+    // file nhỏ hơn ngưỡng thì đọc tuần tự cho nhanh; đoạn song song ~8MB
+    static final long PARALLEL_THRESHOLD = 4L << 20;
+    static final int CHUNK_BYTES = 8 << 20;
+
+    /**
+     * Đọc file lớn: chia đoạn tại ký tự xuống dòng, mỗi đoạn đọc theo vị trí (FileChannel.read(buf, pos),
+     * an toàn khi nhiều luồng cùng đọc) và parse song song trên ForkJoinPool rồi ghép lại đúng thứ tự dòng.
+     * Không dùng FileChannel.map: vùng map chỉ được gỡ khi GC dọn nên file còn bị giữ, trên Windows
+     * lần ghi sau (ATOMIC_MOVE đè lên file này) bị từ chối.
+     */
+    static <T> List<T> loadParallel(String path, Function<String, T> mapper){
+        Path p = Paths.get(path);
+        if (!Files.exists(p)) return new ArrayList<>();
+        long t0 = Metrics.start();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < PARALLEL_THRESHOLD) return load(path, mapper);
+            List<long[]> chunks = splitAtNewlines(ch, size);
+            List<List<T>> parts = chunks.parallelStream().map(c -> parseChunk(readChunk(ch, c[0], c[1]), mapper)).collect(Collectors.toList());
+            List<T> result = new ArrayList<>(parts.stream().mapToInt(List::size).sum());
+            for (List<T> part : parts) result.addAll(part);
+            if (Metrics.ENABLED) ROWS_READ.add(result.size());
             return result;
         } catch (IOException e) { throw new UncheckedIOException(e); }
+        finally { Metrics.stop(LOAD_PARALLEL, t0); }
+    }
+
+    /** Các đoạn [start, end) ~CHUNK_BYTES, mỗi đoạn kết thúc ngay sau một '\n' (hoặc cuối file) */
+    private static List<long[]> splitAtNewlines(FileChannel ch, long size) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + CHUNK_BYTES);
+            while (end < size) {
+                probe.clear();
+                int n = ch.read(probe, end);
+                if (n <= 0) { end = size; break; }
+                int i = 0;
+                while (i < n && probe.get(i) != '\n') i++;
+                end += i;
+                if (i < n) { end++; break; }
+            }
+            chunks.add(new long[]{start, end});
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static byte[] readChunk(FileChannel ch, long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        try {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, start + buf.position()) < 0) throw new EOFException("File ngắn hơn lúc chia đoạn");
+            }
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        return bytes;
+    }
+
+    private static <T> List<T> parseChunk(byte[] bytes, Function<String, T> mapper){
+        int n = bytes.length;
+        List<T> result = new ArrayList<>(n / 96 + 16);
+        int lineStart = 0;
+        for (int i = 0; i <= n; i++) {
+            if (i < n && bytes[i] != '\n') continue;
+            int lineEnd = (i > lineStart && bytes[i - 1] == '\r') ? i - 1 : i;
+            if (lineEnd > lineStart) {
+                String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                if (!line.trim().isEmpty()) result.add(mapper.apply(line));
+            }
+            lineStart = i + 1;
+        }
+        return result;
     }
 }
 
+/**
+ * Kho thực thể: giữ danh sách theo thứ tự nạp/thêm và chỉ mục băm theo id.
+ * Tra cứu theo id không khóa; thêm mới khóa ngắn trên danh sách.
+ */
+final class EntityRepository<T> {
+    private final List<T> items;
+    private final Map<UUID, T> byId;
+    private final Function<T, UUID> idOf;
+
+    EntityRepository(List<T> items, Function<T, UUID> idOf) {
+        this.items = items;
+        this.idOf = idOf;
+        this.byId = new ConcurrentHashMap<>(Math.max(16, items.size() * 4 / 3 + 1));
+        for (T t : items) byId.put(idOf.apply(t), t);
+    }
+
+    void add(T item) {
+        synchronized (items) { items.add(item); }
+        byId.put(idOf.apply(item), item);
+    }
+
+    /** Lọc an toàn khi có luồng khác đang thêm */
+    List<T> select(Predicate<T> filter) {
+        synchronized (items) {
+            List<T> result = new ArrayList<>();
+            for (T t : items) if (filter.test(t)) result.add(t);
+            return result;
+        }
+    }
+
+    /** Bỏ các phần tử thỏa điều kiện (1 lượt quét) */
+    void removeIf(Predicate<T> filter) {
+        synchronized (items) {
+            items.removeIf(t -> {
+                if (!filter.test(t)) return false;
+                byId.remove(idOf.apply(t));
+                return true;
+            });
+        }
+    }
+
+    /** null nếu không có */
+    T get(UUID id) { return byId.get(id); }
+    boolean contains(UUID id) { return byId.containsKey(id); }
+    int size() { return items.size(); }
+
+    /**
+     * Bản chép tại thời điểm gọi (chép dưới khóa): duyệt thoải mái khi luồng khác đang thêm/xóa.
+     * Thêm mới phải đi qua add() để chỉ mục không lệch.
+     */
+    List<T> all() {
+        synchronized (items) { return new ArrayList<>(items); }
+    }
+}
+
+/**
+ * Thread-safe: mỗi bác sĩ có khóa dải riêng (StripedLocks) bao trọn kiểm tra trống + ghi lịch,
+ * nên 2 quầy đặt cùng bác sĩ cùng lúc không thể trùng lịch, còn đặt cho các bác sĩ khác nhau
+ * chạy song song. Các thao tác ghi giữ read-lock của stateLock; saveAll() giữ write-lock
+ * để chụp snapshot nhất quán.
+ */
 class AppointmentManager implements Schedulable {
 
-    private final List<Patient> patients;
-    private final List<Doctor> doctors;
-    private final List<MedicalService> services;
-    private final List<Appointment> appointments;
-    private final List<Invoice> invoices;
+    private final EntityRepository<Patient> patients;
+    private final EntityRepository<Doctor> doctors;
+    private final EntityRepository<MedicalService> services;
+    private final EntityRepository<Appointment> appointments;
+    private final EntityRepository<Invoice> invoices;
+
+    // chỉ mục lịch theo bác sĩ: start -> lịch hẹn (không chứa lịch đã hủy); mỗi TreeMap được
+    // bảo vệ bởi khóa dải của bác sĩ đó
+    private final Map<UUID, TreeMap<LocalDateTime, Appointment>> scheduleByDoctor = new ConcurrentHashMap<>();
+    // bản đồ bận theo ô 5 phút, cập nhật cùng chỉ mục lịch (cùng khóa): kiểm tra trống bằng phép AND
+    private final Map<UUID, OccupancyBitmap> occupancyByDoctor = new ConcurrentHashMap<>();
+
+    // hóa đơn theo lịch hẹn + tập chưa/đã thanh toán theo ngày tạo, cập nhật cùng danh sách hóa đơn
+    private final InvoiceLedger ledger;
+
+    // phiên bản cho bản chụp đọc: mỗi thao tác ghi lịch/hóa đơn chạy trong 1 phiên bản (begin/commit)
+    private final VersionedStore versions;
+
+    // số liệu báo cáo cộng dồn theo từng thao tác
+    private final ReportAggregates aggregates;
+
+    // tìm bệnh nhân theo tên/SĐT/BHYT, cập nhật cùng addPatient/updatePatient
+    private final PatientSearchIndex patientIndex;
+
+    private static final LatencyHistogram SAVE_ALL = Metrics.timer("saveAll");
+    private static final LatencyHistogram LOAD_ALL = Metrics.timer("loadAll");
+
+    static final int LOCK_STRIPES = 256;
+    private final StripedLocks doctorLocks = new StripedLocks(LOCK_STRIPES);
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    // tuần tự hóa mọi lượt ghi file dữ liệu (saveAll, flushDirty, gộp nhật ký): flushDirty ghi sau khi nhả
+    // stateLock nên không có khóa này thì saveAll chen vào được, rồi bản chép cũ hơn ghi đè file mới hơn.
+    // Thứ tự khóa: persistLock trước stateLock.
+    private final ReentrantLock persistLock = new ReentrantLock();
+
+    // nhật ký ghi trước; null = chỉ lưu khi gọi saveAll()
+    static final long COMPACT_THRESHOLD = 10_000;
+    static final int PAYMENT_CHUNK = 10_000;
+    private volatile MutationJournal journal;
+
+    // lưu trữ theo tháng; null = mọi lịch sử nằm trong snapshot như cũ
+    private volatile MonthPartitionStore history;
+
+    // thư mục chứa file dữ liệu của manager này (mặc định thư mục làm việc); mỗi shard 1 thư mục riêng
+    private volatile Path dataDir = Paths.get("");
+
+    // tập đã đổi chưa ghi ra file; chỉ đánh dấu khi giữ stateLock (read hoặc write)
+    private final Set<DataFile> dirty = ConcurrentHashMap.newKeySet();
+    // true khi có BackgroundPersister: không gộp nhật ký ngay trên luồng đang ghi nữa
+    private volatile boolean persistInBackground;
+
+    // sự kiện thay đổi cho subscriber ngoài (chỉ phát từ thao tác mới, không phát khi phát lại nhật ký);
+    // phát trong khóa bác sĩ để sự kiện của cùng bác sĩ đúng thứ tự, offer không khóa nên không làm chậm
+    private final EventBus events = new EventBus();
 
     AppointmentManager(List<Patient> patients,
                        List<Doctor> doctors,
                        List<MedicalService> services,
                        List<Appointment> appointments,
                        List<Invoice> invoices) {
-        this.patients = patients;
-        this.doctors = doctors;
-        this.services = services;
-        this.appointments = appointments;
-        this.invoices = invoices;
+        this.patients = new EntityRepository<>(patients, Patient::getId);
+        this.doctors = new EntityRepository<>(doctors, Doctor::getId);
+        this.services = new EntityRepository<>(services, MedicalService::getId);
+        this.appointments = new EntityRepository<>(appointments, Appointment::getId);
+        this.invoices = new EntityRepository<>(invoices, Invoice::getId);
+        for (Appointment a : appointments) index(a);
+        this.ledger = new InvoiceLedger(this.invoices.all());
+        this.versions = new VersionedStore(this.appointments.all(), this.invoices.all());
+        this.aggregates = ReportAggregates.rebuild(appointments, invoices);
+        this.patientIndex = new PatientSearchIndex(patients);
     }
 
     @Override
     public Appointment book(UUID patientId, UUID doctorId, UUID serviceId, LocalDateTime start) {
-        Patient patient = patients.stream().filter(p -> p.getId().equals(patientId)).findFirst()
-                .orElseThrow(() -> new PatientNotFoundException("Không tìm thấy bệnh nhân: " + patientId));
-        Doctor doctor = doctors.stream().filter(d -> d.getId().equals(doctorId)).findFirst()
-                .orElseThrow(() -> new DoctorNotFoundException("Không tìm thấy bác sĩ: " + doctorId));
-        MedicalService service = services.stream().filter(s -> s.getId().equals(serviceId)).findFirst()
-                .orElseThrow(() -> new ServiceNotFoundException("Không tìm thấy dịch vụ: " + serviceId));
+        Patient patient = patients.get(patientId);
+        if (patient == null) throw new PatientNotFoundException("Không tìm thấy bệnh nhân: " + patientId);
+        Doctor doctor = doctors.get(doctorId);
+        if (doctor == null) throw new DoctorNotFoundException("Không tìm thấy bác sĩ: " + doctorId);
+        MedicalService service = services.get(serviceId);
+        if (service == null) throw new ServiceNotFoundException("Không tìm thấy dịch vụ: " + serviceId);
 
         LocalDateTime end = start.plusMinutes(service.getDurationMinutes());
 
-        if (!isAvailable(doctorId, start, end)) {
-            throw new AppointmentConflictException("Bác sĩ " + doctor.getFullName() + " đã có lịch trong khoảng thời gian này.");
+        Appointment appt;
+        stateLock.readLock().lock();
+        ReentrantLock lock = doctorLocks.lockFor(doctorId);
+        lock.lock();
+        try {
+            if (!isAvailable(doctorId, start, end)) {
+                throw new AppointmentConflictException("Bác sĩ " + doctor.getFullName() + " đã có lịch trong khoảng thời gian này.");
+            }
+
+            appt = new Appointment(UUID.randomUUID(), patient.getId(), doctor.getId(), service.getId(),
+                    start, end, AppointmentStatus.SCHEDULED);
+            // tạo hóa đơn theo chi phí dịch vụ
+            Invoice inv = new Invoice(UUID.randomUUID(), appt.getId(), service.getCost(), LocalDateTime.now(), false);
+            long v = versions.begin();
+            try {
+                applyAppointment(appt, v);
+                applyInvoice(inv, v);
+            } finally {
+                versions.commit(v);
+            }
+
+            // ghi nhật ký trong khóa để bản ghi STATUS của cùng lịch không thể đứng trước
+            log(MutationJournal.APPOINTMENT, appt.toCSV());
+            log(MutationJournal.INVOICE, inv.toCSV());
+            if (events.hasSubscribers()) {
+                events.publish(new AppointmentBooked(appt));
+                events.publish(new InvoiceCreated(inv, appt));
+            }
+        } finally {
+            lock.unlock();
+            stateLock.readLock().unlock();
+        }
+        maybeCompact();
+        return appt;
+    }
+
+    @Override
+    public List<BookingResult> bookAll(List<BookingRequest> requests, boolean atomic) {
+        int n = requests.size();
+        BookingResult[] results = new BookingResult[n];
+        MedicalService[] svc = new MedicalService[n];
+        boolean failed = false;
+
+        // 1) kiểm tra thực thể, nhóm các yêu cầu hợp lệ theo bác sĩ
+        Map<UUID, List<Integer>> byDoctor = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            BookingRequest r = requests.get(i);
+            String missing = !patients.contains(r.getPatientId()) ? "Không tìm thấy bệnh nhân: " + r.getPatientId()
+                    : !doctors.contains(r.getDoctorId()) ? "Không tìm thấy bác sĩ: " + r.getDoctorId()
+                    : (svc[i] = services.get(r.getServiceId())) == null ? "Không tìm thấy dịch vụ: " + r.getServiceId()
+                    : null;
+            if (missing != null) {
+                results[i] = new BookingResult(r, BookingStatus.NOT_FOUND, null, missing);
+                failed = true;
+            } else {
+                byDoctor.computeIfAbsent(r.getDoctorId(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        stateLock.readLock().lock();
+        int[] stripes = doctorLocks.stripesOf(byDoctor.keySet());
+        doctorLocks.lockAll(stripes);
+        try {
+            // 2) mỗi bác sĩ: quét song song lịch đã có (đã sắp theo start) và các yêu cầu đã sắp
+            List<Integer> accepted = new ArrayList<>();
+            for (Map.Entry<UUID, List<Integer>> e : byDoctor.entrySet()) {
+                List<Integer> idx = e.getValue();
+                idx.sort(Comparator.comparing((Integer i) -> requests.get(i).getStart()));
+                TreeMap<LocalDateTime, Appointment> schedule = scheduleByDoctor.getOrDefault(e.getKey(), new TreeMap<>());
+                LocalDateTime first = requests.get(idx.get(0)).getStart();
+                LocalDateTime from = schedule.lowerKey(first);
+                Iterator<Appointment> existing = schedule.tailMap(from == null ? first : from, true).values().iterator();
+                Appointment cur = existing.hasNext() ? existing.next() : null;
+                LocalDateTime lastEnd = null; // end của yêu cầu được nhận gần nhất trong lô
+
+                for (int i : idx) {
+                    BookingRequest r = requests.get(i);
+                    LocalDateTime start = r.getStart();
+                    LocalDateTime end = start.plusMinutes(svc[i].getDurationMinutes());
+                    while (cur != null && !cur.getEnd().isAfter(start)) cur = existing.hasNext() ? existing.next() : null;
+                    if (cur != null && cur.getStart().isBefore(end)) {
+                        results[i] = new BookingResult(r, BookingStatus.CONFLICT, null, "Bác sĩ đã có lịch trong khoảng thời gian này.");
+                        failed = true;
+                    } else if (lastEnd != null && start.isBefore(lastEnd)) {
+                        results[i] = new BookingResult(r, BookingStatus.CONFLICT, null, "Trùng với yêu cầu khác trong cùng lô.");
+                        failed = true;
+                    } else {
+                        lastEnd = end;
+                        accepted.add(i);
+                    }
+                }
+            }
+
+            // 3) chế độ atomic: lô có lỗi thì trả về REJECTED cho phần còn lại, không ghi gì
+            if (atomic && failed) {
+                for (int i : accepted) {
+                    results[i] = new BookingResult(requests.get(i), BookingStatus.REJECTED, null, "Lô bị từ chối do có yêu cầu lỗi.");
+                }
+                return Arrays.asList(results);
+            }
+
+            // 4) tạo lịch + hóa đơn hàng loạt, cả lô chung 1 phiên bản nên bản chụp thấy trọn lô
+            LocalDateTime now = LocalDateTime.now();
+            long v = versions.begin();
+            try {
+                for (int i : accepted) {
+                    BookingRequest r = requests.get(i);
+                    Appointment appt = new Appointment(UUID.randomUUID(), r.getPatientId(), r.getDoctorId(), r.getServiceId(),
+                            r.getStart(), r.getStart().plusMinutes(svc[i].getDurationMinutes()), AppointmentStatus.SCHEDULED);
+                    Invoice inv = new Invoice(UUID.randomUUID(), appt.getId(), svc[i].getCost(), now, false);
+                    applyAppointment(appt, v);
+                    applyInvoice(inv, v);
+                    log(MutationJournal.APPOINTMENT, appt.toCSV());
+                    log(MutationJournal.INVOICE, inv.toCSV());
+                    if (events.hasSubscribers()) {
+                        events.publish(new AppointmentBooked(appt));
+                        events.publish(new InvoiceCreated(inv, appt));
+                    }
+                    results[i] = new BookingResult(r, BookingStatus.BOOKED, appt, null);
+                }
+            } finally {
+                versions.commit(v);
+            }
+        } finally {
+            doctorLocks.unlockAll(stripes);
+            stateLock.readLock().unlock();
+        }
+        maybeCompact();
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<FreeSlot> findFreeSlots(UUID doctorId, MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        if (doctorId == null) throw new IllegalArgumentException("Thiếu bác sĩ");
+        checkSlotQuery(service, from, to, limit);
+        if (!doctors.contains(doctorId)) throw new DoctorNotFoundException("Không tìm thấy bác sĩ: " + doctorId);
+        int duration = service.getDurationMinutes();
+        List<FreeSlot> slots = new ArrayList<>(Math.min(limit, 64));
+        ReentrantLock lock = doctorLocks.lockFor(doctorId);
+        lock.lock();
+        try {
+            TreeMap<LocalDateTime, Appointment> schedule = scheduleByDoctor.getOrDefault(doctorId, new TreeMap<>());
+            for (LocalDate day = from.toLocalDate(); !day.isAfter(to.toLocalDate()) && slots.size() < limit; day = day.plusDays(1)) {
+                if (!DateTimeUtil.isWorkingDay(day)) continue;
+                LocalDateTime open = max(from, day.atTime(Constants.WORK_START_HOUR, 0));
+                LocalDateTime close = min(to, day.atTime(Constants.WORK_END_HOUR, 0));
+                if (open.plusMinutes(duration).isAfter(close)) continue;
+
+                // lịch bắt đầu trước giờ mở nhưng còn kéo dài qua đó
+                LocalDateTime cursor = open;
+                Map.Entry<LocalDateTime, Appointment> prev = schedule.lowerEntry(open);
+                if (prev != null && prev.getValue().getEnd().isAfter(cursor)) cursor = prev.getValue().getEnd();
+
+                for (Appointment a : schedule.subMap(open, true, close, false).values()) {
+                    if (!cursor.plusMinutes(duration).isAfter(a.getStart())) {
+                        slots.add(new FreeSlot(doctorId, cursor, cursor.plusMinutes(duration)));
+                        if (slots.size() >= limit) break;
+                    }
+                    if (a.getEnd().isAfter(cursor)) cursor = a.getEnd();
+                }
+                if (slots.size() < limit && !cursor.plusMinutes(duration).isAfter(close)) {
+                    slots.add(new FreeSlot(doctorId, cursor, cursor.plusMinutes(duration)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return slots;
+    }
+
+    @Override
+    public List<FreeSlot> findFreeSlots(Department department, MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        if (department == null) throw new IllegalArgumentException("Thiếu khoa");
+        checkSlotQuery(service, from, to, limit);
+        return doctors.select(d -> d.getDepartment() == department).parallelStream()
+                .flatMap(d -> findFreeSlots(d.getId(), service, from, to, limit).stream())
+                .sorted(Comparator.comparing(FreeSlot::getStart))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /** Kiểm tra tham số tìm khung trống trước khi khóa: limit = 0 cho danh sách rỗng, âm hay thiếu tham số là lỗi của người gọi */
+    static void checkSlotQuery(MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        if (service == null) throw new IllegalArgumentException("Thiếu dịch vụ");
+        if (from == null || to == null) throw new IllegalArgumentException("Thiếu khoảng thời gian tìm (from, to)");
+        if (limit < 0) throw new IllegalArgumentException("Số khung trống tối đa không được âm: " + limit);
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) { return a.isAfter(b) ? a : b; }
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) { return a.isBefore(b) ? a : b; }
+
+    @Override
+    public void cancel(UUID appointmentId) { changeStatus(appointmentId, AppointmentStatus.CANCELLED); }
+
+    @Override
+    public void complete(UUID appointmentId) { changeStatus(appointmentId, AppointmentStatus.COMPLETED); }
+
+    private void changeStatus(UUID appointmentId, AppointmentStatus status) {
+        Appointment a = findAppt(appointmentId);
+        stateLock.readLock().lock();
+        ReentrantLock lock = doctorLocks.lockFor(a.getDoctorId());
+        lock.lock();
+        try {
+            AppointmentStatus old = a.getStatus();
+            // lịch đã hủy không được mở lại: khung giờ của nó có thể đã được đặt cho người khác
+            if (old == AppointmentStatus.CANCELLED && status != AppointmentStatus.CANCELLED) {
+                throw new IllegalArgumentException("Lịch hẹn đã hủy, không thể chuyển sang " + status + ": " + appointmentId);
+            }
+            long v = versions.begin();
+            try {
+                applyStatus(a, status, v);
+            } finally {
+                versions.commit(v);
+            }
+            log(MutationJournal.STATUS, appointmentId + "," + status.name());
+            if (events.hasSubscribers()) {
+                events.publish(status == AppointmentStatus.CANCELLED ? new AppointmentCancelled(a, old) : new AppointmentCompleted(a, old));
+            }
+        } finally {
+            lock.unlock();
+            stateLock.readLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    void markPaid(UUID invoiceId) {
+        Invoice inv = invoices.get(invoiceId);
+        if (inv == null) throw new IllegalArgumentException("Không tìm thấy hóa đơn: " + invoiceId);
+        mutate(() -> {
+            long v = versions.begin();
+            try {
+                if (!applyPaid(inv, v)) return;
+            } finally {
+                versions.commit(v);
+            }
+            log(MutationJournal.PAID, invoiceId.toString());
+            if (events.hasSubscribers()) events.publish(new InvoicePaid(inv));
+        });
+    }
+
+    /**
+     * Thanh toán hàng loạt (file đối soát ngân hàng...): mỗi mã là id hóa đơn hoặc id lịch hẹn.
+     * Chia lô PAYMENT_CHUNK mã, mỗi lô 1 lần giữ read-lock nên không chặn ghi snapshot quá lâu.
+     */
+    PaymentBatchResult markPaidAll(Collection<UUID> ids) {
+        PaymentBatchResult result = new PaymentBatchResult();
+        List<UUID> chunk = new ArrayList<>(Math.min(ids.size(), PAYMENT_CHUNK));
+        for (UUID id : ids) {
+            chunk.add(id);
+            if (chunk.size() == PAYMENT_CHUNK) { markPaidChunk(chunk, result); chunk.clear(); }
         }
+        if (!chunk.isEmpty()) markPaidChunk(chunk, result);
+        return result;
+    }
+
+    /**
+     * Thanh toán theo file: mỗi dòng có cột đầu là id hóa đơn hoặc id lịch hẹn (các cột sau bỏ qua),
+     * bỏ dòng trống và dòng bắt đầu bằng '#'. Đọc dần từng lô nên file lớn không phải nạp hết.
+     */
+    PaymentBatchResult applyPaymentFile(String path) {
+        PaymentBatchResult result = new PaymentBatchResult();
+        List<UUID> chunk = new ArrayList<>(PAYMENT_CHUNK);
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String t = line.trim();
+                if (t.isEmpty() || t.startsWith("#")) continue;
+                int comma = t.indexOf(',');
+                try {
+                    chunk.add(UUID.fromString((comma < 0 ? t : t.substring(0, comma)).trim()));
+                } catch (IllegalArgumentException e) {
+                    result.unmatched(line); // dòng tiêu đề hoặc mã hỏng
+                    continue;
+                }
+                if (chunk.size() == PAYMENT_CHUNK) { markPaidChunk(chunk, result); chunk.clear(); }
+            }
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        if (!chunk.isEmpty()) markPaidChunk(chunk, result);
+        return result;
+    }
+
+    private void markPaidChunk(List<UUID> ids, PaymentBatchResult result) {
+        mutate(() -> {
+            boolean publish = events.hasSubscribers();
+            long v = versions.begin();
+            try {
+                for (UUID id : ids) {
+                    Invoice inv = invoices.get(id);
+                    if (inv == null) inv = ledger.forAppointment(id);
+                    if (inv == null) result.unmatched(id.toString());
+                    else if (!applyPaid(inv, v)) result.alreadyPaid();
+                    else {
+                        log(MutationJournal.PAID, inv.getId().toString());
+                        if (publish) events.publish(new InvoicePaid(inv));
+                        result.paid();
+                    }
+                }
+            } finally {
+                versions.commit(v);
+            }
+        });
+    }
 
-        Appointment appt = new Appointment(UUID.randomUUID(), patient.getId(), doctor.getId(), service.getId(),
-                start, end, AppointmentStatus.SCHEDULED);
-        appointments.add(appt);
+    void addPatient(Patient p){
+        mutate(() -> {
+            applyPatient(p);
+            log(MutationJournal.PATIENT, p.toCSV());
+            if (events.hasSubscribers()) events.publish(new PatientAdded(p));
+        });
+    }
+
+    /** Sửa thông tin bệnh nhân theo id của changes (ghi đè họ tên, SĐT, địa chỉ, BHYT) */
+    void updatePatient(Patient changes){
+        if (!patients.contains(changes.getId())) throw new PatientNotFoundException("Không tìm thấy bệnh nhân: " + changes.getId());
+        mutate(() -> {
+            Patient p = applyPatient(changes);
+            log(MutationJournal.PATIENT, p.toCSV());
+        });
+    }
+
+    void addDoctor(Doctor d){
+        mutate(() -> {
+            applyDoctor(d);
+            log(MutationJournal.DOCTOR, d.toCSV());
+        });
+    }
 
-        // tạo hóa đơn theo chi phí dịch vụ
-        Invoice inv = new Invoice(UUID.randomUUID(), appt.getId(), service.getCost(), LocalDateTime.now(), false);
+    // thao tác ghi không gắn với lịch bác sĩ: chỉ cần chặn snapshot đang chụp
+    private void mutate(Runnable change) {
+        stateLock.readLock().lock();
+        try {
+            change.run();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    // ===== áp thay đổi vào dữ liệu + chỉ mục (dùng chung cho thao tác mới và phát lại nhật ký) =====
+    /** Thêm mới, hoặc chép thông tin vào bệnh nhân đã có cùng id; trả về bản đang lưu */
+    private Patient applyPatient(Patient p) {
+        Patient existing = patients.get(p.getId());
+        if (existing == null) {
+            patients.add(p);
+            existing = p;
+        } else {
+            synchronized (existing) {
+                existing.setFullName(p.getFullName());
+                existing.setPhone(p.getPhone());
+                existing.setAddress(p.getAddress());
+                existing.setInsuranceNumber(p.getInsuranceNumber());
+            }
+        }
+        patientIndex.put(existing);
+        dirty.add(DataFile.PATIENTS);
+        return existing;
+    }
+
+    private void applyDoctor(Doctor d) {
+        doctors.add(d);
+        dirty.add(DataFile.DOCTORS);
+    }
+
+    private void applyAppointment(Appointment a, long version) {
+        appointments.add(a);
+        versions.onAppointment(a, version);
+        index(a);
+        aggregates.onAppointment(a);
+        dirty.add(DataFile.APPOINTMENTS);
+    }
+
+    private void applyInvoice(Invoice inv, long version) {
         invoices.add(inv);
+        versions.onInvoice(inv, version);
+        ledger.add(inv);
+        aggregates.onInvoice(inv);
+        dirty.add(DataFile.INVOICES);
+    }
 
-        return appt;
+    private void applyStatus(Appointment a, AppointmentStatus status, long version) {
+        AppointmentStatus old = a.getStatus();
+        unindex(a);
+        versions.beforeStatus(a, version);
+        a.setStatus(status);
+        index(a);
+        aggregates.onStatusChange(a, old, status);
+        dirty.add(DataFile.APPOINTMENTS);
     }
 
-    @Override public void cancel(UUID appointmentId)   { findAppt(appointmentId).setStatus(AppointmentStatus.CANCELLED); }
-    @Override public void complete(UUID appointmentId) { findAppt(appointmentId).setStatus(AppointmentStatus.COMPLETED); }
+    /** false nếu hóa đơn đã thanh toán từ trước */
+    private boolean applyPaid(Invoice inv, long version) {
+        synchronized (inv) {
+            if (inv.isPaid()) return false;
+            versions.beforePaid(inv, version);
+            inv.markPaid();
+        }
+        ledger.onPaid(inv);
+        aggregates.onPaid(inv);
+        dirty.add(DataFile.INVOICES);
+        return true;
+    }
+
+    /** Phát lại 1 bản ghi nhật ký; bản ghi đã có trong snapshot thì bỏ qua */
+    private void replay(String type, String payload) {
+        long v = versions.begin();
+        try {
+            switch (type) {
+                case MutationJournal.PATIENT -> {
+                    // thêm hoặc sửa: bản ghi sau ghi đè bản ghi trước nên phát lại vẫn idempotent
+                    applyPatient(Patient.fromCSV(payload));
+                }
+                case MutationJournal.DOCTOR -> {
+                    Doctor d = Doctor.fromCSV(payload);
+                    if (!doctors.contains(d.getId())) applyDoctor(d);
+                }
+                case MutationJournal.APPOINTMENT -> {
+                    Appointment a = Appointment.fromCSV(payload);
+                    if (!appointments.contains(a.getId())) applyAppointment(a, v);
+                }
+                case MutationJournal.INVOICE -> {
+                    Invoice inv = Invoice.fromCSV(payload);
+                    if (!invoices.contains(inv.getId())) applyInvoice(inv, v);
+                }
+                case MutationJournal.STATUS -> {
+                    CsvLine c = new CsvLine(payload);
+                    applyStatus(findAppt(c.nextUuid()), c.nextEnum(AppointmentStatus.class), v);
+                }
+                case MutationJournal.PAID -> {
+                    Invoice inv = invoices.get(UUID.fromString(payload));
+                    if (inv == null) throw new IllegalArgumentException("Không tìm thấy hóa đơn: " + payload);
+                    applyPaid(inv, v);
+                }
+                default -> throw new IllegalArgumentException("Loại bản ghi nhật ký không hợp lệ: " + type);
+            }
+        } finally {
+            versions.commit(v);
+        }
+    }
+
+    private void log(String type, String payload) {
+        MutationJournal j = journal;
+        if (j != null) j.append(type, payload);
+    }
+
+    // gộp nhật ký vào snapshot theo lô, chi phí ghi toàn bộ được chia đều cho COMPACT_THRESHOLD thao tác;
+    // gọi sau khi đã nhả mọi khóa. Có ghi nền thì việc này do luồng nền làm.
+    private void maybeCompact() {
+        MutationJournal j = journal;
+        if (j != null && !persistInBackground && j.records() >= COMPACT_THRESHOLD) {
+            persistLock.lock();
+            try {
+                if (j.records() >= COMPACT_THRESHOLD) saveAll();
+            } finally {
+                persistLock.unlock();
+            }
+        }
+    }
+
+    /** Bật nhật ký ghi trước: từ đây mỗi thay đổi được nối vào file thay vì đợi saveAll() */
+    void attachJournal(String path) {
+        if (journal != null) journal.close();
+        journal = MutationJournal.open(path);
+    }
+
+    void closeJournal() {
+        if (journal != null) { journal.close(); journal = null; }
+    }
+
+    void persistInBackground(boolean on) { persistInBackground = on; }
+
+    boolean hasUnsavedChanges() { return !dirty.isEmpty(); }
+
+    /**
+     * Bản chụp đọc nhất quán tại thời điểm gọi, không giữ khóa nào trong lúc đọc; phải đóng sau khi
+     * dùng: try (ReadSnapshot s = manager.snapshot()) { ... }
+     */
+    ReadSnapshot snapshot() { return versions.snapshot(doctors.all(), services.all()); }
 
     @Override
     public List<Appointment> listAppointmentsByDoctor(UUID doctorId) {
-        return appointments.stream().filter(a -> a.getDoctorId().equals(doctorId)).collect(Collectors.toList());
+        try (ReadSnapshot s = snapshot()) {
+            return s.appointments(a -> a.getDoctorId().equals(doctorId)).collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public List<Appointment> listAppointmentsByDoctor(UUID doctorId, LocalDateTime from, LocalDateTime to) {
+        List<Appointment> result = appointmentsBetween(from, to);
+        result.removeIf(a -> !a.getDoctorId().equals(doctorId));
+        return result;
+    }
+
+    /** Lịch hẹn bắt đầu trong [from, to), gồm cả các tháng đã lưu trữ (nạp lười), sắp theo giờ bắt đầu */
+    List<Appointment> appointmentsBetween(LocalDateTime from, LocalDateTime to) {
+        List<Appointment> result;
+        try (ReadSnapshot s = snapshot()) {
+            result = s.appointments(a -> inRange(a, from, to)).collect(Collectors.toList());
+        }
+        MonthPartitionStore h = history;
+        if (h != null) {
+            for (MonthPartitionStore.Partition p : h.partitions(YearMonth.from(from), YearMonth.from(to))) {
+                for (Appointment a : p.appointments) if (inRange(a, from, to)) result.add(a);
+            }
+        }
+        result.sort(Comparator.comparing(Appointment::getStart));
+        return result;
+    }
+
+    /** Hóa đơn của các lịch hẹn bắt đầu trong [from, to), gồm cả các tháng đã lưu trữ */
+    List<Invoice> invoicesBetween(LocalDateTime from, LocalDateTime to) {
+        List<Invoice> result;
+        try (ReadSnapshot s = snapshot()) {
+            // giờ của lịch hẹn không đổi nên tra đối tượng sống vẫn nhất quán với bản chụp
+            result = s.invoices().filter(inv -> {
+                Appointment a = appointments.get(inv.getAppointmentId());
+                return a != null && inRange(a, from, to);
+            }).collect(Collectors.toList());
+        }
+        MonthPartitionStore h = history;
+        if (h != null) {
+            for (MonthPartitionStore.Partition p : h.partitions(YearMonth.from(from), YearMonth.from(to))) {
+                for (Invoice inv : p.invoices) {
+                    Appointment a = p.getAppointment(inv.getAppointmentId());
+                    if (a != null && inRange(a, from, to)) result.add(inv);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean inRange(Appointment a, LocalDateTime from, LocalDateTime to) {
+        return !a.getStart().isBefore(from) && a.getStart().isBefore(to);
     }
 
     @Override
     public boolean isAvailable(UUID doctorId, LocalDateTime start, LocalDateTime end) {
-        return appointments.stream()
-                .filter(a -> a.getDoctorId().equals(doctorId))
-                .noneMatch(a -> a.getStart().isBefore(end) && start.isBefore(a.getEnd()));
+        ReentrantLock lock = doctorLocks.lockFor(doctorId);
+        lock.lock();
+        try {
+            OccupancyBitmap bits = occupancyByDoctor.get(doctorId);
+            if (bits == null || bits.isFree(start, end)) return true;
+            if (bits.isExact()) return false;
+            // có lịch lệch lưới 5': ô bận có thể chỉ bị chiếm một phần -> kiểm tra chính xác trên chỉ mục
+            TreeMap<LocalDateTime, Appointment> schedule = scheduleByDoctor.get(doctorId);
+            if (schedule == null) return true;
+            // các lịch trong chỉ mục không chồng nhau nên chỉ cần xét lịch bắt đầu gần nhất trước end
+            Map.Entry<LocalDateTime, Appointment> prev = schedule.lowerEntry(end);
+            return prev == null || !start.isBefore(prev.getValue().getEnd());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void index(Appointment a) {
+        if (a.getStatus() == AppointmentStatus.CANCELLED) return;
+        // không bao giờ ghi đè lịch khác cùng giờ bắt đầu (vd. nhật ký cũ còn bản ghi mở lại lịch đã hủy)
+        Appointment other = scheduleByDoctor.computeIfAbsent(a.getDoctorId(), k -> new TreeMap<>()).putIfAbsent(a.getStart(), a);
+        if (other != null) return;
+        occupancyByDoctor.computeIfAbsent(a.getDoctorId(), k -> new OccupancyBitmap()).mark(a.getStart(), a.getEnd(), true);
+    }
+
+    private void unindex(Appointment a) {
+        TreeMap<LocalDateTime, Appointment> schedule = scheduleByDoctor.get(a.getDoctorId());
+        if (schedule == null || !schedule.remove(a.getStart(), a)) return;
+        OccupancyBitmap bits = occupancyByDoctor.get(a.getDoctorId());
+        bits.mark(a.getStart(), a.getEnd(), false);
+        // ô đầu/cuối có thể dùng chung với lịch kề bên (giờ lẻ không khớp lưới 5') -> đánh dấu lại các lịch đó
+        LocalDateTime from = OccupancyBitmap.floorSlot(a.getStart()), to = OccupancyBitmap.ceilSlot(a.getEnd());
+        Map.Entry<LocalDateTime, Appointment> prev = schedule.lowerEntry(a.getStart());
+        if (prev != null && prev.getValue().getEnd().isAfter(from)) bits.mark(prev.getValue().getStart(), prev.getValue().getEnd(), true);
+        for (Appointment next : schedule.subMap(a.getStart(), true, to, false).values()) bits.mark(next.getStart(), next.getEnd(), true);
+    }
+
+    // ===== lịch theo ngày/tuần của bác sĩ =====
+    /**
+     * Lịch chưa hủy của bác sĩ có giờ bắt đầu trong các ngày [from, to], đã sắp theo giờ (lấy thẳng từ
+     * chỉ mục), kèm số ô 5 phút bận trong giờ làm việc mỗi ngày (đọc từ bản đồ bận). Chỉ gồm dữ liệu
+     * đang nạp, không gồm các tháng đã lưu trữ.
+     */
+    CalendarView calendar(UUID doctorId, LocalDate from, LocalDate to) {
+        if (!doctors.contains(doctorId)) throw new DoctorNotFoundException("Không tìm thấy bác sĩ: " + doctorId);
+        if (to.isBefore(from)) throw new IllegalArgumentException("Khoảng ngày không hợp lệ: " + from + " > " + to);
+        ReentrantLock lock = doctorLocks.lockFor(doctorId);
+        lock.lock();
+        try {
+            TreeMap<LocalDateTime, Appointment> schedule = scheduleByDoctor.get(doctorId);
+            List<Appointment> appts = schedule == null ? new ArrayList<>()
+                    : new ArrayList<>(schedule.subMap(from.atStartOfDay(), true, to.plusDays(1).atStartOfDay(), false).values());
+            OccupancyBitmap bits = occupancyByDoctor.get(doctorId);
+            Map<LocalDate, Integer> used = new LinkedHashMap<>();
+            for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) used.put(d, bits == null ? 0 : bits.workingSlotsUsed(d));
+            return new CalendarView(doctorId, from, to, appts, used);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    CalendarView calendarDay(UUID doctorId, LocalDate day) { return calendar(doctorId, day, day); }
+
+    /** Tuần (thứ 2 -> Chủ nhật) chứa ngày day */
+    CalendarView calendarWeek(UUID doctorId, LocalDate day) {
+        LocalDate monday = day.with(DayOfWeek.MONDAY);
+        return calendar(doctorId, monday, monday.plusDays(6));
     }
 
     private Appointment findAppt(UUID id) {
-        return appointments.stream().filter(a -> a.getId().equals(id)).findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy lịch hẹn: " + id));
+        Appointment a = appointments.get(id);
+        if (a == null) throw new IllegalArgumentException("Không tìm thấy lịch hẹn: " + id);
+        return a;
     }
 
-    // Lưu/đọc CSV cho toàn bộ tập dữ liệu
+    // Lưu/đọc snapshot cho toàn bộ tập dữ liệu; ghi xong snapshot thì nhật ký được gộp (xóa)
     void saveAll() {
-        CsvStorage.save(Constants.PATIENTS_CSV, patients);
-        CsvStorage.save(Constants.DOCTORS_CSV, doctors);
-        CsvStorage.save(Constants.SERVICES_CSV, services);
-        CsvStorage.save(Constants.APPOINTMENTS_CSV, appointments);
-        CsvStorage.save(Constants.INVOICES_CSV, invoices);
-    }
-
-    static AppointmentManager loadAll() {
-        List<Patient> patients = CsvStorage.load(Constants.PATIENTS_CSV, Patient::fromCSV);
-        List<Doctor> doctors = CsvStorage.load(Constants.DOCTORS_CSV, Doctor::fromCSV);
-        List<MedicalService> services = CsvStorage.load(Constants.SERVICES_CSV, MedicalService::fromCSV);
-        List<Appointment> appointments = CsvStorage.load(Constants.APPOINTMENTS_CSV, Appointment::fromCSV);
-        List<Invoice> invoices = CsvStorage.load(Constants.INVOICES_CSV, Invoice::fromCSV);
-        return new AppointmentManager(patients, doctors, services, appointments, invoices);
+        long t0 = Metrics.start();
+        persistLock.lock();
+        stateLock.writeLock().lock();
+        try {
+            if (history != null) archive();
+            if (Constants.SNAPSHOT_FORMAT == SnapshotFormat.BINARY) BinarySnapshot.write(file(Constants.SNAPSHOT_BIN), this);
+            else saveCsv();
+            dirty.clear();
+            MutationJournal j = journal;
+            if (j != null) j.truncate();
+        } finally {
+            stateLock.writeLock().unlock();
+            persistLock.unlock();
+            Metrics.stop(SAVE_ALL, t0);
+        }
     }
 
-    // getters
-    List<Patient> getPatients(){ return patients; }
-    List<Doctor> getDoctors(){ return doctors; }
-    List<MedicalService> getServices(){ return services; }
-    List<Appointment> getAppointments(){ return appointments; }
-    List<Invoice> getInvoices(){ return invoices; }
+    /**
+     * Chỉ ghi các file CSV đã đổi. Dưới write-lock chỉ chép các thực thể (bản sao nông, không định dạng)
+     * và niêm phong đoạn nhật ký; dựng CSV, ghi file + fsync làm sau khi nhả khóa nên thao tác ghi không
+     * phải chờ đĩa.
+     * Đoạn nhật ký chỉ bị xóa khi mọi file đã ghi xong; lỗi giữa chừng thì đánh dấu lại để lần sau ghi tiếp.
+     * Snapshot nhị phân là 1 file nên vẫn ghi toàn bộ như saveAll(). Trả về số file đã ghi.
+     */
+    int flushDirty() {
+        if (dirty.isEmpty()) return 0;
+        if (Constants.SNAPSHOT_FORMAT == SnapshotFormat.BINARY) {
+            saveAll();
+            return 1;
+        }
+        // giữ persistLock tới khi ghi xong: saveAll chỉ chạy trước hoặc sau cả lượt này
+        persistLock.lock();
+        try {
+            Map<DataFile, List<? extends Persistable>> pending = new EnumMap<>(DataFile.class);
+            MutationJournal j;
+            long sealed;
+            stateLock.writeLock().lock();
+            try {
+                for (DataFile f : DataFile.values()) if (dirty.remove(f)) pending.put(f, capture(f));
+                j = journal;
+                sealed = j == null ? -1 : j.rotate();
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            try {
+                for (Map.Entry<DataFile, List<? extends Persistable>> e : pending.entrySet()) CsvStorage.save(file(e.getKey().path), e.getValue());
+            } catch (RuntimeException e) {
+                dirty.addAll(pending.keySet());
+                throw e;
+            }
+            if (sealed > 0) j.dropSealed(sealed);
+            return pending.size();
+        } finally {
+            persistLock.unlock();
+        }
+    }
+
+    // chép phần có thể đổi sau khi nhả khóa (trạng thái, đã trả, thông tin người)
+    private List<? extends Persistable> capture(DataFile f) {
+        return switch (f) {
+            case PATIENTS -> copyOf(patients, p -> new Patient(p.getId(), p.getFullName(), p.getPhone(), p.getAddress(), p.getInsuranceNumber()));
+            case DOCTORS -> copyOf(doctors, d -> new Doctor(d.getId(), d.getFullName(), d.getPhone(), d.getAddress(), d.getDepartment()));
+            // ít dòng: chụp luôn chuỗi CSV
+            case SERVICES -> copyOf(services, s -> s).stream().map(s -> { String line = s.toCSV(); return (Persistable) () -> line; }).toList();
+            case APPOINTMENTS -> copyOf(appointments, a -> new Appointment(a.getId(), a.getPatientId(), a.getDoctorId(), a.getServiceId(),
+                    a.getStart(), a.getEnd(), a.getStatus()));
+            case INVOICES -> copyOf(invoices, inv -> new Invoice(inv.getId(), inv.getAppointmentId(), inv.getAmount(), inv.getCreatedAt(), inv.isPaid()));
+        };
+    }
+
+    private static <T> List<T> copyOf(EntityRepository<T> repo, UnaryOperator<T> copy) {
+        List<T> all = repo.all();
+        List<T> result = new ArrayList<>(all.size());
+        for (T t : all) result.add(copy.apply(t));
+        return result;
+    }
+
+    /**
+     * Bật lưu trữ theo tháng. Số liệu báo cáo của phần đã lưu trữ được cộng vào aggregates; dòng còn
+     * trong snapshot mà đã có trong file tháng (sập giữa lúc lưu trữ và lúc ghi snapshot) thì bỏ.
+     */
+    void attachHistory(String dir) {
+        stateLock.writeLock().lock();
+        try {
+            MonthPartitionStore h = MonthPartitionStore.open(dir, Constants.HISTORY_CACHE_MONTHS);
+            aggregates.merge(h.summary());
+            history = h;
+            YearMonth hotStart = MonthPartitionStore.hotStart(LocalDateTime.now());
+            Set<UUID> dup = new HashSet<>();
+            for (Appointment a : appointments.all()) {
+                Invoice inv = ledger.forAppointment(a.getId());
+                if (!MonthPartitionStore.isArchivable(a, inv, hotStart)) continue;
+                if (!h.partition(YearMonth.from(a.getStart())).contains(a.getId())) continue;
+                dup.add(a.getId());
+                aggregates.onAppointmentRemoved(a);
+                if (inv != null) { dup.add(inv.getId()); aggregates.onInvoiceRemoved(inv); }
+            }
+            dropFromHot(dup);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    // chuyển các dòng đã xong việc của tháng cũ sang file tháng; aggregates giữ nguyên vì vẫn tính cả lịch sử.
+    // gọi dưới write-lock, trước khi ghi snapshot (sập ở giữa thì attachHistory bỏ dòng trùng)
+    private void archive() {
+        YearMonth hotStart = MonthPartitionStore.hotStart(LocalDateTime.now());
+        Map<YearMonth, List<Appointment>> appts = new TreeMap<>();
+        Map<YearMonth, List<Invoice>> invs = new TreeMap<>();
+        Set<UUID> moved = new HashSet<>();
+        for (Appointment a : appointments.all()) {
+            Invoice inv = ledger.forAppointment(a.getId());
+            if (!MonthPartitionStore.isArchivable(a, inv, hotStart)) continue;
+            YearMonth m = YearMonth.from(a.getStart());
+            appts.computeIfAbsent(m, k -> new ArrayList<>()).add(a);
+            moved.add(a.getId());
+            if (inv != null) {
+                invs.computeIfAbsent(m, k -> new ArrayList<>()).add(inv);
+                moved.add(inv.getId());
+            }
+        }
+        if (appts.isEmpty()) return;
+        history.archive(appts, invs);
+        dropFromHot(moved);
+    }
+
+    private void dropFromHot(Set<UUID> ids) {
+        if (ids.isEmpty()) return;
+        appointments.removeIf(a -> {
+            if (!ids.contains(a.getId())) return false;
+            // isAvailable chỉ giữ khóa bác sĩ nên vẫn phải khóa khi gỡ khỏi chỉ mục
+            ReentrantLock lock = doctorLocks.lockFor(a.getDoctorId());
+            lock.lock();
+            try {
+                unindex(a);
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        });
+        invoices.removeIf(inv -> {
+            if (!ids.contains(inv.getId())) return false;
+            ledger.remove(inv);
+            return true;
+        });
+        versions.reset(appointments.all(), invoices.all());
+        dirty.add(DataFile.APPOINTMENTS);
+        dirty.add(DataFile.INVOICES);
+    }
+
+    MonthPartitionStore getHistory(){ return history; }
+
+    /** Sổ cái hóa đơn (chỉ đọc; ghi phải đi qua markPaid/markPaidAll) */
+    InvoiceLedger getLedger(){ return ledger; }
+
+    /** Hóa đơn của lịch hẹn (null nếu không có hoặc đã lưu trữ) */
+    Invoice getInvoiceForAppointment(UUID appointmentId){ return ledger.forAppointment(appointmentId); }
+
+    /** Báo cáo tuổi nợ 30/60/90 ngày tại ngày asOf, ghi dần ra file CSV */
+    AgeingReport exportAgeing(String path, LocalDate asOf) { return ageing().export(path, asOf); }
+
+    /** Chỉ tổng theo nhóm tuổi nợ, không ghi file */
+    AgeingReport ageingSummary(LocalDate asOf) { return ageing().summarize(asOf); }
+
+    private ReceivablesAgeing ageing() { return new ReceivablesAgeing(ledger, appointments::get); }
+
+    /** Đăng ký nhận sự kiện thay đổi: getEvents().subscribe(name, subscriber) */
+    EventBus getEvents(){ return events; }
+
+    void saveCsv() {
+        CsvStorage.save(file(Constants.PATIENTS_CSV), patients.all());
+        CsvStorage.save(file(Constants.DOCTORS_CSV), doctors.all());
+        CsvStorage.save(file(Constants.SERVICES_CSV), services.all());
+        CsvStorage.save(file(Constants.APPOINTMENTS_CSV), appointments.all());
+        CsvStorage.save(file(Constants.INVOICES_CSV), invoices.all());
+    }
+
+    /** Đổi thư mục lưu (file CSV/snapshot); nhật ký và lưu trữ tháng gắn riêng qua attachJournal/attachHistory */
+    void setDataDir(Path dir) { dataDir = dir; }
+    Path getDataDir() { return dataDir; }
+
+    private String file(String name) { return dataDir.resolve(name).toString(); }
+
+    // nạp snapshot, phát lại nhật ký chồng lên rồi tiếp tục ghi nhật ký
+    static AppointmentManager loadAll() { return loadAll(Paths.get("")); }
+
+    /**
+     * Như loadAll(); nếu chưa có dữ liệu thì seed mẫu cho đủ data theo đề và ghi ra ngay.
+     * Nhật ký do loadAll mở được đóng trước khi manager mẫu mở lại đúng file đó.
+     */
+    static AppointmentManager loadOrSeed() {
+        AppointmentManager loaded = loadAll();
+        if (!loaded.getPatients().isEmpty() || !loaded.getDoctors().isEmpty() || !loaded.getServices().isEmpty()) return loaded;
+        loaded.closeJournal();
+        AppointmentManager seeded = DataSeeder.seedMinimum();
+        seeded.attachJournal(Constants.JOURNAL_LOG);
+        seeded.saveAll();
+        return seeded;
+    }
+
+    /** Như loadAll() nhưng mọi file (CSV, snapshot, nhật ký, lưu trữ tháng) nằm trong thư mục dir */
+    static AppointmentManager loadAll(Path dir) {
+        long t0 = Metrics.start();
+        AppointmentManager mgr = loadSnapshot(dir);
+        mgr.setDataDir(dir);
+        mgr.replayJournal(dir);
+        if (Constants.HISTORY_ENABLED) mgr.attachHistory(dir.resolve(Constants.HISTORY_DIR).toString());
+        mgr.attachJournal(dir.resolve(Constants.JOURNAL_LOG).toString());
+        Metrics.stop(LOAD_ALL, t0);
+        return mgr;
+    }
+
+    /** Phát lại nhật ký trong dir chồng lên dữ liệu đang có, không mở nhật ký để ghi tiếp */
+    void replayJournal(Path dir) {
+        MutationJournal.replay(dir.resolve(Constants.JOURNAL_LOG).toString(), this::replay);
+    }
+
+    // snapshot nhị phân nếu được chọn và đã có; nếu chưa thì nhập từ CSV
+    private static AppointmentManager loadSnapshot(Path dir) {
+        Path bin = dir.resolve(Constants.SNAPSHOT_BIN);
+        if (Constants.SNAPSHOT_FORMAT == SnapshotFormat.BINARY && Files.exists(bin)) {
+            return BinarySnapshot.read(bin.toString());
+        }
+        return loadCsv(dir);
+    }
+
+    static AppointmentManager loadCsv() { return loadCsv(Paths.get("")); }
+
+    // nạp đồng thời 5 file, file lớn được parse song song theo đoạn
+    static AppointmentManager loadCsv(Path dir) {
+        ExecutorService io = Executors.newFixedThreadPool(5);
+        try {
+            var patients = CompletableFuture.supplyAsync(() -> CsvStorage.loadParallel(dir.resolve(Constants.PATIENTS_CSV).toString(), Patient::fromCSV), io);
+            var doctors = CompletableFuture.supplyAsync(() -> CsvStorage.loadParallel(dir.resolve(Constants.DOCTORS_CSV).toString(), Doctor::fromCSV), io);
+            var services = CompletableFuture.supplyAsync(() -> CsvStorage.loadParallel(dir.resolve(Constants.SERVICES_CSV).toString(), MedicalService::fromCSV), io);
+            var appointments = CompletableFuture.supplyAsync(() -> CsvStorage.loadParallel(dir.resolve(Constants.APPOINTMENTS_CSV).toString(), Appointment::fromCSV), io);
+            var invoices = CompletableFuture.supplyAsync(() -> CsvStorage.loadParallel(dir.resolve(Constants.INVOICES_CSV).toString(), Invoice::fromCSV), io);
+            return new AppointmentManager(join(patients), join(doctors), join(services), join(appointments), join(invoices));
+        } finally {
+            io.shutdown();
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    ReportAggregates getAggregates(){ return aggregates; }
+    PatientSearchIndex getPatientIndex(){ return patientIndex; }
+
+    /** Đối chiếu số liệu cộng dồn với tính lại toàn bộ (chụp dưới write-lock cho nhất quán) */
+    List<String> verifyAggregates() {
+        stateLock.writeLock().lock();
+        try {
+            MonthPartitionStore h = history;
+            return aggregates.verify(appointments.all(), invoices.all(), h == null ? new ReportAggregates() : h.summary());
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    // tra cứu theo id (null nếu không có)
+    Patient getPatient(UUID id){ return patients.get(id); }
+    Doctor getDoctor(UUID id){ return doctors.get(id); }
+    MedicalService getService(UUID id){ return services.get(id); }
+    Appointment getAppointment(UUID id){ return appointments.get(id); }
+    Invoice getInvoice(UUID id){ return invoices.get(id); }
+
+    // getters (chỉ đọc)
+    List<Patient> getPatients(){ return patients.all(); }
+    List<Doctor> getDoctors(){ return doctors.all(); }
+    List<MedicalService> getServices(){ return services.all(); }
+    List<Appointment> getAppointments(){ return appointments.all(); }
+    List<Invoice> getInvoices(){ return invoices.all(); }
 }
 
 final class DataSeeder {
@@ -188,23 +1491,60 @@ final class DataSeeder {
         return new AppointmentManager(patients, doctors, services, appointments, invoices);
     }
 
-    // Báo cáo: Top 3 bác sĩ nhiều lịch nhất
-    static List<Map.Entry<UUID, Long>> top3DoctorsByAppointments(AppointmentManager mgr) {
-        Map<UUID, Long> count = new HashMap<>();
-        for (Appointment a : mgr.getAppointments()) {
-            count.put(a.getDoctorId(), count.getOrDefault(a.getDoctorId(), 0L) + 1);
+    /**
+     * Bộ dữ liệu có kích thước tùy ý (cho đo hiệu năng), cùng kiểu dữ liệu với seedMinimum.
+     * Mỗi bác sĩ có 1 con trỏ thời gian chạy tới trong giờ làm việc nên không bao giờ trùng lịch
+     * và không phải dò lại danh sách.
+     */
+    static AppointmentManager seedScaled(int patientCount, int doctorCount, int appointmentCount, long seed) {
+        List<Patient> patients = new ArrayList<>(patientCount);
+        List<Doctor> doctors = new ArrayList<>(doctorCount);
+        List<MedicalService> services = new ArrayList<>();
+        List<Appointment> appointments = new ArrayList<>(appointmentCount);
+        List<Invoice> invoices = new ArrayList<>(appointmentCount);
+
+        for (int i = 1; i <= patientCount; i++) {
+            patients.add(new Patient(null, "Patient " + i, "090" + i, "Address " + i, "BHYT-" + i));
         }
-        return count.entrySet().stream()
-                .sorted(Map.Entry.<UUID, Long>comparingByValue().reversed())
-                .limit(3)
-                .toList();
+        Department[] deps = Department.values();
+        for (int i = 1; i <= doctorCount; i++) {
+            doctors.add(new Doctor(null, "Dr " + i, "098" + i, "Clinic " + i, deps[i % deps.length]));
+        }
+        for (int i = 1; i <= 5; i++) services.add(new ExaminationService(null, "Khám tổng quát " + i, 150_000, 20));
+        for (int i = 1; i <= 5; i++) services.add(new TestService(null, "Xét nghiệm " + i, 200_000, 15));
+        for (int i = 1; i <= 5; i++) services.add(new SurgeryService(null, "Phẫu thuật " + i, 5_000_000, 120));
+
+        Random rnd = new Random(seed);
+        LocalDateTime origin = LocalDate.now().minusYears(1).atTime(Constants.WORK_START_HOUR, 0);
+        LocalDateTime[] cursor = new LocalDateTime[doctorCount];
+        Arrays.fill(cursor, origin);
+        for (int i = 0; i < appointmentCount; i++) {
+            int di = i % doctorCount;
+            Patient p = patients.get(rnd.nextInt(patientCount));
+            MedicalService s = services.get(rnd.nextInt(services.size()));
+
+            LocalDateTime start = cursor[di].plusMinutes(5L * rnd.nextInt(4));
+            if (start.plusMinutes(s.getDurationMinutes()).getHour() >= Constants.WORK_END_HOUR) {
+                start = start.toLocalDate().plusDays(1).atTime(Constants.WORK_START_HOUR, 0);
+            }
+            LocalDateTime end = start.plusMinutes(s.getDurationMinutes());
+            cursor[di] = end;
+
+            Appointment a = new Appointment(null, p.getId(), doctors.get(di).getId(), s.getId(), start, end, AppointmentStatus.SCHEDULED);
+            appointments.add(a);
+            invoices.add(new Invoice(null, a.getId(), s.getCost(), start.minusDays(rnd.nextInt(14)), false));
+        }
+
+        return new AppointmentManager(patients, doctors, services, appointments, invoices);
+    }
+
+    // Báo cáo: Top 3 bác sĩ nhiều lịch nhất (đọc từ số liệu cộng dồn)
+    static List<Map.Entry<UUID, Long>> top3DoctorsByAppointments(AppointmentManager mgr) {
+        return mgr.getAggregates().topDoctors(3);
     }
 
     // Báo cáo: doanh thu theo tháng (tổng tiền hóa đơn trong tháng chỉ định)
     static double monthlyRevenue(AppointmentManager mgr, int year, int month) {
-        return mgr.getInvoices().stream()
-                .filter(inv -> inv.getCreatedAt().getYear() == year && inv.getCreatedAt().getMonthValue() == month)
-                .mapToDouble(Invoice::getAmount)
-                .sum();
+        return mgr.getAggregates().monthlyRevenue(year, month);
     }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Bản đồ bận của 1 bác sĩ theo ô 5 phút: mỗi ngày 288 ô = long[5], gom theo tháng (long[31 * 5])
+ * để chỉ tốn bộ nhớ cho các tháng có lịch; mảng tháng đánh chỉ số thẳng theo số tháng nên tra cứu
+ * không cần băm. Ô bị chiếm một phần cũng tính là bận, nên "trống" trên bản đồ luôn đúng; "bận" chỉ
+ * chắc chắn khi mọi lịch đã đánh dấu đều khớp lưới 5 phút (isExact).
+ * Không tự khóa: dùng dưới khóa của bác sĩ giống chỉ mục lịch.
+ */
+final class OccupancyBitmap {
+    static final int SLOT_MINUTES = 5;
+    static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;  // 288
+    static final int WORDS_PER_DAY = (SLOTS_PER_DAY + 63) / 64; // 5
+    static final int WORK_FROM = Constants.WORK_START_HOUR * 60 / SLOT_MINUTES;
+    static final int WORK_TO = Constants.WORK_END_HOUR * 60 / SLOT_MINUTES;
+
+    private static final int SET = 0, CLEAR = 1, TEST = 2;
+
+    private long[][] months = new long[0][];
+    private int firstMonth; // số tháng (năm * 12 + tháng - 1) của months[0]
+    private boolean exact = true;
+
+    /** Đánh dấu (on = true) hoặc bỏ đánh dấu các ô giao với [start, end) */
+    void mark(LocalDateTime start, LocalDateTime end, boolean on) {
+        if (on && (!isAligned(start) || !isAligned(end))) exact = false;
+        apply(start, end, on ? SET : CLEAR);
+    }
+
+    /** true nếu không ô nào trong [start, end) bị chiếm (AND mặt nạ với từng word) */
+    boolean isFree(LocalDateTime start, LocalDateTime end) { return apply(start, end, TEST); }
+
+    /** true nếu mọi lịch từng đánh dấu đều khớp lưới 5 phút: khi đó ô bận nghĩa là chắc chắn trùng lịch */
+    boolean isExact() { return exact; }
+
+    /** Số ô bận trong giờ làm việc của ngày */
+    int workingSlotsUsed(LocalDate day) {
+        long[] words = words(day, false);
+        return words == null ? 0 : count(words, base(day), WORK_FROM, WORK_TO);
+    }
+
+    /** Mốc ô 5 phút chứa t (làm tròn xuống) */
+    static LocalDateTime floorSlot(LocalDateTime t) {
+        return t.withSecond(0).withNano(0).minusMinutes(t.getMinute() % SLOT_MINUTES);
+    }
+
+    /** Mốc ô 5 phút đầu tiên không trước t (làm tròn lên) */
+    static LocalDateTime ceilSlot(LocalDateTime t) {
+        LocalDateTime f = floorSlot(t);
+        return f.equals(t) ? f : f.plusMinutes(SLOT_MINUTES);
+    }
+
+    private static boolean isAligned(LocalDateTime t) { return t.getMinute() % SLOT_MINUTES == 0 && t.getSecond() == 0 && t.getNano() == 0; }
+
+    private static int base(LocalDate day) { return (day.getDayOfMonth() - 1) * WORDS_PER_DAY; }
+
+    // tách [start, end) theo ngày thành các khoảng ô [from, to) rồi SET/CLEAR/TEST; TEST gặp ô bận thì trả về false
+    private boolean apply(LocalDateTime start, LocalDateTime end, int op) {
+        if (!end.isAfter(start)) return true;
+        LocalDate day = start.toLocalDate();
+        LocalDate lastDay = end.toLocalDate();
+        int from = (start.getHour() * 60 + start.getMinute()) / SLOT_MINUTES;
+        while (true) {
+            boolean last = !lastDay.isAfter(day);
+            int to = last ? (end.getHour() * 60 + end.getMinute() + SLOT_MINUTES - 1) / SLOT_MINUTES : SLOTS_PER_DAY;
+            if (to > from) {
+                long[] words = words(day, op == SET);
+                if (words != null) {
+                    int b = base(day);
+                    for (int w = from / 64; w <= (to - 1) / 64; w++) {
+                        long m = mask(w, from, to);
+                        if (op == SET) words[b + w] |= m;
+                        else if (op == CLEAR) words[b + w] &= ~m;
+                        else if ((words[b + w] & m) != 0) return false;
+                    }
+                }
+            }
+            if (last) return true;
+            day = day.plusDays(1);
+            from = 0;
+        }
+    }
+
+    private long[] words(LocalDate day, boolean create) {
+        int m = day.getYear() * 12 + day.getMonthValue() - 1;
+        int i = m - firstMonth;
+        if (i >= 0 && i < months.length && months[i] != null) return months[i];
+        if (!create) return null;
+        if (months.length == 0) {
+            firstMonth = m;
+            months = new long[1][];
+            i = 0;
+        } else if (i < 0) {
+            long[][] grown = new long[months.length - i][];
+            System.arraycopy(months, 0, grown, -i, months.length);
+            months = grown;
+            firstMonth = m;
+            i = 0;
+        } else if (i >= months.length) {
+            months = Arrays.copyOf(months, Math.max(i + 1, months.length + 12));
+        }
+        return months[i] = new long[31 * WORDS_PER_DAY];
+    }
+
+    // mặt nạ các bit [from, to) của word thứ w (tính theo chỉ số ô trong ngày)
+    private static long mask(int w, int from, int to) {
+        int lo = Math.max(from - w * 64, 0), hi = Math.min(to - w * 64, 64);
+        if (lo >= hi) return 0;
+        long upper = hi == 64 ? -1L : (1L << hi) - 1;
+        return upper & (-1L << lo);
+    }
+
+    private static int count(long[] words, int base, int from, int to) {
+        int n = 0;
+        for (int w = from / 64; w <= (to - 1) / 64; w++) n += Long.bitCount(words[base + w] & mask(w, from, to));
+        return n;
+    }
+}
+
+/** Lịch 1 bác sĩ trong [from, to] (theo ngày): lịch hẹn chưa hủy sắp theo giờ + tỉ lệ lấp đầy giờ làm việc */
+final class CalendarView {
+    private final UUID doctorId;
+    private final LocalDate from, to;
+    private final List<Appointment> appointments;
+    private final Map<LocalDate, Integer> usedSlots;
+
+    CalendarView(UUID doctorId, LocalDate from, LocalDate to, List<Appointment> appointments, Map<LocalDate, Integer> usedSlots) {
+        this.doctorId = doctorId;
+        this.from = from;
+        this.to = to;
+        this.appointments = Collections.unmodifiableList(appointments);
+        this.usedSlots = usedSlots;
+    }
+
+    UUID getDoctorId() { return doctorId; }
+    LocalDate getFrom() { return from; }
+    LocalDate getTo() { return to; }
+    List<Appointment> getAppointments() { return appointments; }
+
+    /** Lịch của 1 ngày (đã sắp theo giờ) */
+    List<Appointment> on(LocalDate day) {
+        List<Appointment> result = new ArrayList<>();
+        for (Appointment a : appointments) if (a.getStart().toLocalDate().equals(day)) result.add(a);
+        return result;
+    }
+
+    /** Tỉ lệ lấp đầy giờ làm việc từng ngày (0..1), theo ô 5 phút */
+    Map<LocalDate, Double> utilisationByDay() {
+        Map<LocalDate, Double> result = new LinkedHashMap<>();
+        usedSlots.forEach((day, used) -> result.put(day, used / (double) workingSlots()));
+        return result;
+    }
+
+    /** Tỉ lệ lấp đầy cả khoảng, chỉ tính ngày làm việc (DateTimeUtil.isWorkingDay) như AnalyticsEngine */
+    double utilisation() {
+        long used = 0, capacity = 0;
+        for (Map.Entry<LocalDate, Integer> e : usedSlots.entrySet()) {
+            used += e.getValue();
+            if (DateTimeUtil.isWorkingDay(e.getKey())) capacity += workingSlots();
+        }
+        return capacity == 0 ? 0 : Math.min(1, used / (double) capacity);
+    }
+
+    private static int workingSlots() { return OccupancyBitmap.WORK_TO - OccupancyBitmap.WORK_FROM; }
+}
@@ -0,0 +1,80 @@
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ghi nền cho AppointmentManager: mỗi khoảng intervalMs, nếu có tập dữ liệu đã đổi thì ghi đúng các
+ * file đó (flushDirty), nên cả loạt thao tác trong khoảng chỉ tốn 1 lần ghi. Thao tác đặt lịch chỉ
+ * nối nhật ký, không còn chờ ghi file hay gộp nhật ký. Tắt tiến trình thì ghi lần cuối qua shutdown hook.
+ * Nhiều manager (các cơ sở của ShardedManager) dùng chung 1 luồng, ghi lần lượt trong mỗi lượt.
+ */
+final class BackgroundPersister implements Closeable {
+    private static final LatencyHistogram FLUSH = Metrics.timer("persist.flush");
+    private static final LongAdder FILES_WRITTEN = Metrics.counter("persist.filesWritten");
+
+    private final List<AppointmentManager> managers;
+    private final ScheduledExecutorService timer;
+    private final Thread hook;
+    private boolean closed;
+
+    private BackgroundPersister(List<AppointmentManager> managers, long intervalMs) {
+        this.managers = List.copyOf(managers);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "persist");
+            t.setDaemon(true);
+            return t;
+        });
+        this.hook = new Thread(this::close, "persist-close");
+        for (AppointmentManager m : this.managers) m.persistInBackground(true);
+        timer.scheduleWithFixedDelay(this::flushQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    static BackgroundPersister start(AppointmentManager manager, long intervalMs) {
+        return new BackgroundPersister(List.of(manager), intervalMs);
+    }
+
+    static BackgroundPersister start(List<AppointmentManager> managers, long intervalMs) {
+        return new BackgroundPersister(managers, intervalMs);
+    }
+
+    /** Ghi ngay các file đã đổi; trả về số file đã ghi */
+    synchronized int flush() {
+        long t0 = Metrics.start();
+        try {
+            int files = 0;
+            for (AppointmentManager m : managers) files += m.flushDirty();
+            if (Metrics.ENABLED) FILES_WRITTEN.add(files);
+            return files;
+        } finally {
+            Metrics.stop(FLUSH, t0);
+        }
+    }
+
+    /** Dừng luồng nền rồi ghi lần cuối */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        timer.shutdown();
+        try {
+            flush();
+        } finally {
+            for (AppointmentManager m : managers) m.persistInBackground(false);
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // đang trong lúc tắt JVM (chính hook này đang chạy)
+            }
+        }
+    }
+
+    // lỗi ghi thì các tập vẫn còn đánh dấu, lượt sau ghi lại
+    private synchronized void flushQuietly() {
+        if (closed) return;
+        try { flush(); } catch (RuntimeException e) { System.err.println("!! Lỗi ghi nền: " + e.getMessage()); }
+    }
+}
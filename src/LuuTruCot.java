@@ -0,0 +1,290 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Từ điển UUID <-> số thứ tự int: lưu 2 nửa UUID trong long[] và bảng băm địa chỉ mở int[],
+ * không có đối tượng UUID/Integer nào nằm lại trên heap.
+ */
+final class IdDictionary {
+    private long[] msb = new long[16];
+    private long[] lsb = new long[16];
+    private int[] table = new int[32]; // ordinal + 1, 0 = ô trống
+    private int size;
+
+    int size() { return size; }
+
+    /** -1 nếu chưa có */
+    int ordinal(UUID id) { return find(id.getMostSignificantBits(), id.getLeastSignificantBits()); }
+
+    /** Số thứ tự của id, thêm mới nếu chưa có */
+    int intern(UUID id) {
+        long hi = id.getMostSignificantBits(), lo = id.getLeastSignificantBits();
+        int o = find(hi, lo);
+        return o >= 0 ? o : append(hi, lo);
+    }
+
+    UUID get(int ordinal) { return new UUID(msb[ordinal], lsb[ordinal]); }
+
+    /** Cắt phần dư của mảng sau khi nạp xong */
+    void trim() {
+        msb = Arrays.copyOf(msb, Math.max(1, size));
+        lsb = Arrays.copyOf(lsb, Math.max(1, size));
+    }
+
+    private int find(long hi, long lo) {
+        int mask = table.length - 1;
+        for (int i = hash(hi, lo) & mask; ; i = (i + 1) & mask) {
+            int slot = table[i];
+            if (slot == 0) return -1;
+            if (msb[slot - 1] == hi && lsb[slot - 1] == lo) return slot - 1;
+        }
+    }
+
+    private int append(long hi, long lo) {
+        if (size >= msb.length) {
+            msb = Arrays.copyOf(msb, Math.max(16, size * 2));
+            lsb = Arrays.copyOf(lsb, Math.max(16, size * 2));
+        }
+        msb[size] = hi;
+        lsb[size] = lo;
+        int o = size++;
+        if (size * 2 > table.length) rehash(table.length * 2);
+        else put(o);
+        return o;
+    }
+
+    private void put(int ordinal) {
+        int mask = table.length - 1;
+        int i = hash(msb[ordinal], lsb[ordinal]) & mask;
+        while (table[i] != 0) i = (i + 1) & mask;
+        table[i] = ordinal + 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int o = 0; o < size; o++) put(o);
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
+
+/**
+ * View đã phát ra cho từng dòng, giữ bằng tham chiếu yếu: còn ai giữ view thì get(row) trả lại đúng
+ * đối tượng đó (synchronized (inv), so sánh ==, Set theo định danh vẫn đúng); không ai giữ thì GC thu
+ * hồi và ô được dọn qua hàng đợi tham chiếu, nên heap chỉ tốn 1 ô tham chiếu cho mỗi dòng.
+ */
+final class ViewCache<V> {
+    private static final class Slot<V> extends WeakReference<V> {
+        final int row;
+        Slot(V view, int row, ReferenceQueue<? super V> queue) { super(view, queue); this.row = row; }
+    }
+
+    private final ReferenceQueue<V> cleared = new ReferenceQueue<>();
+    private Slot<V>[] slots = newSlots(16);
+
+    /** View của dòng row: đối tượng cũ nếu còn sống, nếu không thì tạo mới bằng factory */
+    synchronized V get(int row, java.util.function.IntFunction<V> factory) {
+        expunge();
+        if (row >= slots.length) slots = Arrays.copyOf(slots, Math.max(row + 1, slots.length * 2));
+        Slot<V> slot = slots[row];
+        V view = slot == null ? null : slot.get();
+        if (view == null) {
+            view = factory.apply(row);
+            slots[row] = new Slot<>(view, row, cleared);
+        }
+        return view;
+    }
+
+    synchronized void trim(int size) {
+        expunge();
+        slots = Arrays.copyOf(slots, Math.max(1, size));
+    }
+
+    // ô đã bị GC xóa mà vẫn còn trong mảng thì bỏ đi, không để đối tượng Slot rỗng nằm lại
+    private void expunge() {
+        for (Object ref; (ref = cleared.poll()) != null; ) {
+            Slot<?> s = (Slot<?>) ref;
+            if (s.row < slots.length && slots[s.row] == s) slots[s.row] = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Slot<V>[] newSlots(int n) { return (Slot<V>[]) new Slot<?>[n]; }
+}
+
+/**
+ * Lịch hẹn lưu theo cột: id ở từ điển (số thứ tự = số dòng), bệnh nhân/bác sĩ/dịch vụ là số thứ tự
+ * trong từ điển dùng chung, giờ là số phút epoch, trạng thái là ordinal. Khoảng 50 byte/dòng
+ * so với ~250 byte của 1 Appointment đầy đủ. get(i) trả về view nhẹ đọc thẳng từ các cột.
+ */
+final class AppointmentColumns extends AbstractList<Appointment> {
+    private static final AppointmentStatus[] STATUSES = AppointmentStatus.values();
+
+    final IdDictionary ids = new IdDictionary();
+    private final IdDictionary patients, doctors, services;
+    private int[] patient = new int[16], doctor = new int[16], service = new int[16];
+    private int[] start = new int[16], end = new int[16];
+    private byte[] status = new byte[16];
+    private final ViewCache<Appointment> views = new ViewCache<>();
+    private int size;
+
+    AppointmentColumns(IdDictionary patients, IdDictionary doctors, IdDictionary services) {
+        this.patients = patients; this.doctors = doctors; this.services = services;
+    }
+
+    @Override public int size() { return size; }
+    @Override public Appointment get(int row) { Objects.checkIndex(row, size); return views.get(row, View::new); }
+
+    /** Lịch hẹn đã có (cùng id) thì bỏ qua và trả về false */
+    @Override
+    public boolean add(Appointment a) {
+        return append(a.getId(), a.getPatientId(), a.getDoctorId(), a.getServiceId(), a.getStart(), a.getEnd(), a.getStatus());
+    }
+
+    /** Đọc 1 dòng Appointment.toCSV() thẳng vào cột, không dựng Appointment */
+    boolean addCsv(String line) {
+        CsvLine c = new CsvLine(line);
+        return append(c.nextUuid(), c.nextUuid(), c.nextUuid(), c.nextUuid(),
+                c.nextDateTime(), c.nextDateTime(), c.nextEnum(AppointmentStatus.class));
+    }
+
+    private boolean append(UUID id, UUID patientId, UUID doctorId, UUID serviceId,
+                           LocalDateTime st, LocalDateTime en, AppointmentStatus stt) {
+        if (ids.ordinal(id) >= 0) return false;
+        if (size >= status.length) resize(status.length * 2);
+        ids.intern(id);
+        patient[size] = patients.intern(patientId);
+        doctor[size] = doctors.intern(doctorId);
+        service[size] = services.intern(serviceId);
+        start[size] = BinarySnapshot.toMinutes(st);
+        end[size] = BinarySnapshot.toMinutes(en);
+        status[size] = (byte) stt.ordinal();
+        size++;
+        return true;
+    }
+
+    /** Dòng của lịch hẹn, -1 nếu không có */
+    int rowOf(UUID id) { return ids.ordinal(id); }
+
+    void trim() {
+        ids.trim();
+        resize(Math.max(1, size));
+        views.trim(size);
+    }
+
+    private void resize(int n) {
+        patient = Arrays.copyOf(patient, n); doctor = Arrays.copyOf(doctor, n); service = Arrays.copyOf(service, n);
+        start = Arrays.copyOf(start, n); end = Arrays.copyOf(end, n);
+        status = Arrays.copyOf(status, n);
+    }
+
+    /** View flyweight: chỉ giữ số dòng, mọi getter đọc từ cột, setStatus ghi vào cột */
+    private final class View extends Appointment {
+        private final int row;
+        View(int row) { this.row = row; }
+        @Override public UUID getId() { return ids.get(row); }
+        @Override public UUID getPatientId() { return patients.get(patient[row]); }
+        @Override public UUID getDoctorId() { return doctors.get(doctor[row]); }
+        @Override public UUID getServiceId() { return services.get(service[row]); }
+        @Override public LocalDateTime getStart() { return BinarySnapshot.fromMinutes(start[row]); }
+        @Override public LocalDateTime getEnd() { return BinarySnapshot.fromMinutes(end[row]); }
+        @Override public AppointmentStatus getStatus() { return STATUSES[status[row]]; }
+        @Override public void setStatus(AppointmentStatus s) { status[row] = (byte) s.ordinal(); }
+    }
+}
+
+/** Hóa đơn lưu theo cột: 2 nửa UUID của lịch hẹn, số tiền double, ngày lập theo phút epoch, đã trả là byte */
+final class InvoiceColumns extends AbstractList<Invoice> {
+    final IdDictionary ids = new IdDictionary();
+    private long[] apptMsb = new long[16], apptLsb = new long[16];
+    private double[] amount = new double[16];
+    private int[] createdAt = new int[16];
+    private byte[] paid = new byte[16];
+    private final ViewCache<Invoice> views = new ViewCache<>();
+    private int size;
+
+    @Override public int size() { return size; }
+    @Override public Invoice get(int row) { Objects.checkIndex(row, size); return views.get(row, View::new); }
+
+    /** Hóa đơn đã có (cùng id) thì bỏ qua và trả về false */
+    @Override
+    public boolean add(Invoice inv) {
+        return append(inv.getId(), inv.getAppointmentId(), inv.getAmount(), inv.getCreatedAt(), inv.isPaid());
+    }
+
+    /** Đọc 1 dòng Invoice.toCSV() thẳng vào cột, không dựng Invoice */
+    boolean addCsv(String line) {
+        CsvLine c = new CsvLine(line);
+        return append(c.nextUuid(), c.nextUuid(), c.nextDouble(), c.nextDateTime(), c.nextBoolean());
+    }
+
+    private boolean append(UUID id, UUID appointmentId, double amt, LocalDateTime created, boolean isPaid) {
+        if (ids.ordinal(id) >= 0) return false;
+        if (size >= paid.length) resize(paid.length * 2);
+        ids.intern(id);
+        apptMsb[size] = appointmentId.getMostSignificantBits();
+        apptLsb[size] = appointmentId.getLeastSignificantBits();
+        amount[size] = amt;
+        createdAt[size] = BinarySnapshot.toMinutes(created);
+        paid[size] = (byte) (isPaid ? 1 : 0);
+        size++;
+        return true;
+    }
+
+    int rowOf(UUID id) { return ids.ordinal(id); }
+
+    void trim() {
+        ids.trim();
+        resize(Math.max(1, size));
+        views.trim(size);
+    }
+
+    private void resize(int n) {
+        apptMsb = Arrays.copyOf(apptMsb, n); apptLsb = Arrays.copyOf(apptLsb, n);
+        amount = Arrays.copyOf(amount, n); createdAt = Arrays.copyOf(createdAt, n);
+        paid = Arrays.copyOf(paid, n);
+    }
+
+    private final class View extends Invoice {
+        private final int row;
+        View(int row) { this.row = row; }
+        @Override public UUID getId() { return ids.get(row); }
+        @Override public UUID getAppointmentId() { return new UUID(apptMsb[row], apptLsb[row]); }
+        @Override public double getAmount() { return amount[row]; }
+        @Override public LocalDateTime getCreatedAt() { return BinarySnapshot.fromMinutes(createdAt[row]); }
+        @Override public boolean isPaid() { return paid[row] != 0; }
+        @Override public void markPaid() { paid[row] = 1; }
+    }
+}
+
+/**
+ * Kho dạng cột cho lịch hẹn + hóa đơn chủ yếu để đọc (các tháng lịch sử MonthPartitionStore đang nạp):
+ * giữ API Appointment/Invoice qua view nhưng tốn ít heap hơn nhiều lần. AppointmentManager vẫn giữ
+ * đối tượng đầy đủ cho phần đang đặt/sửa.
+ */
+final class ColumnarStore {
+    final IdDictionary patients = new IdDictionary();
+    final IdDictionary doctors = new IdDictionary();
+    final IdDictionary services = new IdDictionary();
+    final AppointmentColumns appointments = new AppointmentColumns(patients, doctors, services);
+    final InvoiceColumns invoices = new InvoiceColumns();
+
+    static ColumnarStore of(List<Appointment> appointments, List<Invoice> invoices) {
+        ColumnarStore store = new ColumnarStore();
+        for (Appointment a : appointments) store.appointments.add(a);
+        for (Invoice inv : invoices) store.invoices.add(inv);
+        store.trim();
+        return store;
+    }
+
+    /** Cắt phần dư của các mảng sau khi nạp xong */
+    void trim() {
+        patients.trim(); doctors.trim(); services.trim();
+        appointments.trim(); invoices.trim();
+    }
+}
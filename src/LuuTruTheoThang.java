@@ -0,0 +1,179 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Lịch sử lịch hẹn + hóa đơn chia theo tháng khám: mỗi tháng đã lưu trữ là 1 file yyyy-MM.csv gồm
+ * phần tóm tắt số liệu báo cáo của tháng (dòng COUNT/BILLED/PAID) rồi tới các dòng APPOINTMENT/INVOICE
+ * (hóa đơn nằm cùng tháng với lịch hẹn của nó). File được ghi lại nguyên tử mỗi lần thêm dòng.
+ *
+ * Lúc mở chỉ đọc phần tóm tắt đầu mỗi file, nên thời gian khởi động và bộ nhớ không tăng theo số dòng
+ * lịch sử. Dữ liệu 1 tháng chỉ được nạp khi có truy vấn cần tới, giữ dạng cột (ColumnarStore), và chỉ
+ * giữ tối đa maxResident tháng (bỏ tháng lâu không dùng nhất).
+ */
+final class MonthPartitionStore {
+    static final String APPOINTMENT = "APPOINTMENT"; // APPOINTMENT,Appointment.toCSV()
+    static final String INVOICE = "INVOICE";         // INVOICE,Invoice.toCSV()
+
+    /** Dữ liệu 1 tháng đã nạp (chỉ đọc), giữ dạng cột: dòng là view, đọc 2 lần cùng dòng được cùng đối tượng */
+    static final class Partition {
+        final YearMonth month;
+        final List<Appointment> appointments;
+        final List<Invoice> invoices;
+        private final ColumnarStore store;
+
+        Partition(YearMonth month, ColumnarStore store) {
+            this.month = month;
+            this.store = store;
+            this.appointments = Collections.unmodifiableList(store.appointments);
+            this.invoices = Collections.unmodifiableList(store.invoices);
+        }
+
+        Appointment getAppointment(UUID id) {
+            int row = store.appointments.rowOf(id);
+            return row < 0 ? null : store.appointments.get(row);
+        }
+        boolean contains(UUID id) { return store.appointments.rowOf(id) >= 0 || store.invoices.rowOf(id) >= 0; }
+    }
+
+    private final Path dir;
+    private final NavigableSet<YearMonth> months = new ConcurrentSkipListSet<>();
+    private final ReportAggregates summary = new ReportAggregates();
+    private final Map<YearMonth, Partition> resident;
+    private long loads;
+
+    private MonthPartitionStore(Path dir, int maxResident) {
+        this.dir = dir;
+        this.resident = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<YearMonth, Partition> eldest) { return size() > maxResident; }
+        };
+    }
+
+    /** Mở thư mục lưu trữ (tạo nếu chưa có), chỉ đọc phần tóm tắt của từng tháng */
+    static MonthPartitionStore open(String dir, int maxResident) {
+        MonthPartitionStore store = new MonthPartitionStore(Paths.get(dir), maxResident);
+        try {
+            Files.createDirectories(store.dir);
+            try (Stream<Path> files = Files.list(store.dir)) {
+                files.map(p -> p.getFileName().toString())
+                        .filter(name -> name.matches("\\d{4}-\\d{2}\\.csv"))
+                        .forEach(name -> store.months.add(YearMonth.parse(name.substring(0, 7))));
+            }
+            for (YearMonth m : store.months) store.readSummary(m);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        return store;
+    }
+
+    /** Số liệu báo cáo của toàn bộ phần đã lưu trữ */
+    ReportAggregates summary() { return summary; }
+
+    NavigableSet<YearMonth> months() { return Collections.unmodifiableNavigableSet(months); }
+
+    /** Dữ liệu 1 tháng, nạp từ đĩa nếu chưa có trong bộ nhớ; tháng chưa lưu trữ trả về phần rỗng */
+    Partition partition(YearMonth month) {
+        synchronized (resident) {
+            Partition p = resident.get(month);
+            if (p == null) {
+                p = months.contains(month) ? load(month) : new Partition(month, new ColumnarStore());
+                if (months.contains(month)) resident.put(month, p);
+            }
+            return p;
+        }
+    }
+
+    /** Các tháng đã lưu trữ trong [from, to] */
+    List<Partition> partitions(YearMonth from, YearMonth to) {
+        List<Partition> result = new ArrayList<>();
+        if (from.isAfter(to)) return result;
+        for (YearMonth m : months.subSet(from, true, to, true)) result.add(partition(m));
+        return result;
+    }
+
+    /**
+     * Thêm dòng vào các tháng (ghi lại từng file tháng nguyên tử). Dòng đã lưu trữ được coi là bất biến,
+     * nên phần tóm tắt chỉ cần cộng thêm các dòng mới. Dòng có id đã nằm trong tháng thì bỏ qua: lần
+     * archive trước có thể đã ghi xong vài tháng rồi mới lỗi, và saveAll gọi lại sẽ gửi lại cả các dòng đó.
+     */
+    void archive(Map<YearMonth, List<Appointment>> appointments, Map<YearMonth, List<Invoice>> invoices) {
+        synchronized (resident) {
+            for (Map.Entry<YearMonth, List<Appointment>> e : appointments.entrySet()) {
+                YearMonth m = e.getKey();
+                Partition old = partition(m);
+                List<Appointment> newAppointments = new ArrayList<>();
+                for (Appointment a : e.getValue()) if (!old.contains(a.getId())) newAppointments.add(a);
+                List<Invoice> newInvoices = new ArrayList<>();
+                for (Invoice inv : invoices.getOrDefault(m, List.of())) if (!old.contains(inv.getId())) newInvoices.add(inv);
+                if (newAppointments.isEmpty() && newInvoices.isEmpty()) continue;
+
+                List<Appointment> appts = new ArrayList<>(old.appointments);
+                List<Invoice> invs = new ArrayList<>(old.invoices);
+                appts.addAll(newAppointments);
+                invs.addAll(newInvoices);
+                write(m, appts, invs);
+                months.add(m);
+                resident.put(m, new Partition(m, ColumnarStore.of(appts, invs)));
+
+                for (Appointment a : newAppointments) summary.onAppointment(a);
+                for (Invoice inv : newInvoices) {
+                    summary.onInvoice(inv);
+                    if (inv.isPaid()) summary.onPaid(inv);
+                }
+            }
+        }
+    }
+
+    int residentCount() { synchronized (resident) { return resident.size(); } }
+    long loadCount() { synchronized (resident) { return loads; } }
+
+    // ===== file tháng =====
+    private Path file(YearMonth m) { return dir.resolve(m + ".csv"); }
+
+    private void write(YearMonth m, List<Appointment> appts, List<Invoice> invs) {
+        List<String> lines = ReportAggregates.rebuild(appts, invs).toLines();
+        for (Appointment a : appts) lines.add(APPOINTMENT + "," + a.toCSV());
+        for (Invoice inv : invs) lines.add(INVOICE + "," + inv.toCSV());
+        CsvStorage.saveLines(file(m).toString(), lines);
+    }
+
+    // phần tóm tắt luôn đứng trước dòng dữ liệu đầu tiên nên dừng đọc ở đó
+    private void readSummary(YearMonth m) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(file(m), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                if (!summary.readLine(line)) break;
+            }
+        }
+    }
+
+    // đọc thẳng vào cột, không dựng Appointment/Invoice cho từng dòng; dòng trùng id (file ghi trước khi
+    // archive bỏ dòng đã có) chỉ giữ lần đầu
+    private Partition load(YearMonth m) {
+        ColumnarStore store = new ColumnarStore();
+        for (String line : CsvStorage.load(file(m).toString(), l -> l)) {
+            if (line.startsWith(APPOINTMENT + ",")) store.appointments.addCsv(line.substring(APPOINTMENT.length() + 1));
+            else if (line.startsWith(INVOICE + ",")) store.invoices.addCsv(line.substring(INVOICE.length() + 1));
+        }
+        store.trim();
+        loads++;
+        return new Partition(m, store);
+    }
+
+    /**
+     * Dòng được chuyển sang lưu trữ khi tháng khám đã ra khỏi cửa sổ nóng và không còn việc dở:
+     * lịch đã hoàn tất/hủy, hóa đơn đã trả (hoặc lịch đã hủy).
+     */
+    static boolean isArchivable(Appointment a, Invoice inv, YearMonth hotStart) {
+        if (!YearMonth.from(a.getStart()).isBefore(hotStart)) return false;
+        if (a.getStatus() == AppointmentStatus.SCHEDULED) return false;
+        return inv == null || inv.isPaid() || a.getStatus() == AppointmentStatus.CANCELLED;
+    }
+
+    /** Tháng đầu tiên của cửa sổ nóng tính tại thời điểm now */
+    static YearMonth hotStart(LocalDateTime now) { return YearMonth.from(now).minusMonths(Constants.HOT_MONTHS - 1); }
+}
@@ -0,0 +1,497 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Ghi/đọc JSON tối thiểu cho API (không dùng thư viện ngoài) */
+final class Json {
+    private Json() {}
+
+    static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static String quote(Object o) { return o == null ? "null" : quote(o.toString()); }
+
+    static String time(LocalDateTime t) { return quote(DateTimeUtil.format(t, Constants.DATE_TIME_PATTERN)); }
+
+    static String array(Collection<String> items) { return "[" + String.join(", ", items) + "]"; }
+
+    static String patient(Patient p) {
+        return "{\"id\": " + quote(p.getId()) + ", \"fullName\": " + quote(p.getFullName()) + ", \"phone\": " + quote(p.getPhone())
+                + ", \"address\": " + quote(p.getAddress()) + ", \"insuranceNumber\": " + quote(p.getInsuranceNumber()) + "}";
+    }
+
+    static String doctor(Doctor d) {
+        return "{\"id\": " + quote(d.getId()) + ", \"fullName\": " + quote(d.getFullName()) + ", \"phone\": " + quote(d.getPhone())
+                + ", \"address\": " + quote(d.getAddress()) + ", \"department\": " + quote(d.getDepartment()) + "}";
+    }
+
+    static String service(MedicalService s) {
+        return String.format(Locale.ROOT, "{\"id\": %s, \"type\": %s, \"name\": %s, \"cost\": %.2f, \"durationMinutes\": %d}",
+                quote(s.getId()), quote(s.getClass().getSimpleName()), quote(s.getName()), s.getCost(), s.getDurationMinutes());
+    }
+
+    static String appointment(Appointment a) {
+        return "{\"id\": " + quote(a.getId()) + ", \"patientId\": " + quote(a.getPatientId()) + ", \"doctorId\": " + quote(a.getDoctorId())
+                + ", \"serviceId\": " + quote(a.getServiceId()) + ", \"start\": " + time(a.getStart()) + ", \"end\": " + time(a.getEnd())
+                + ", \"status\": " + quote(a.getStatus()) + "}";
+    }
+
+    static String invoice(Invoice inv) {
+        return String.format(Locale.ROOT, "{\"id\": %s, \"appointmentId\": %s, \"amount\": %.2f, \"createdAt\": %s, \"paid\": %b}",
+                quote(inv.getId()), quote(inv.getAppointmentId()), inv.getAmount(), time(inv.getCreatedAt()), inv.isPaid());
+    }
+
+    static String slot(FreeSlot s) {
+        return "{\"doctorId\": " + quote(s.getDoctorId()) + ", \"start\": " + time(s.getStart()) + ", \"end\": " + time(s.getEnd()) + "}";
+    }
+
+    /** Đọc object JSON phẳng {"k": "v", "n": 1, "b": true}; giá trị trả về dạng chuỗi, null giữ là null */
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int[] pos = {skip(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') return result;
+        while (true) {
+            String key = readString(text, pos);
+            expect(text, pos, ':');
+            char c = peek(text, pos);
+            String value;
+            if (c == '"') value = readString(text, pos);
+            else {
+                int start = pos[0];
+                while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) pos[0]++;
+                value = text.substring(start, pos[0]);
+                if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) throw new IllegalArgumentException("JSON không hợp lệ tại " + start);
+                if (value.equals("null")) value = null;
+            }
+            result.put(key, value);
+            if (peek(text, pos) == ',') { pos[0]++; continue; }
+            expect(text, pos, '}');
+            return result;
+        }
+    }
+
+    private static int skip(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static char peek(String s, int[] pos) {
+        pos[0] = skip(s, pos[0]);
+        if (pos[0] >= s.length()) throw new IllegalArgumentException("JSON bị cắt cụt");
+        return s.charAt(pos[0]);
+    }
+
+    private static void expect(String s, int[] pos, char c) {
+        if (peek(s, pos) != c) throw new IllegalArgumentException("JSON không hợp lệ: cần '" + c + "' tại " + pos[0]);
+        pos[0]++;
+    }
+
+    private static String readString(String s, int[] pos) {
+        expect(s, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (pos[0] < s.length()) {
+            char c = s.charAt(pos[0]++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') { sb.append(c); continue; }
+            if (pos[0] >= s.length()) break;
+            char e = s.charAt(pos[0]++);
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r' -> sb.append('\r');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (pos[0] + 4 > s.length()) throw new IllegalArgumentException("JSON bị cắt cụt");
+                    sb.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                }
+                default -> sb.append(e);
+            }
+        }
+        throw new IllegalArgumentException("JSON bị cắt cụt");
+    }
+}
+
+/** Lỗi trả về cho client với mã HTTP tương ứng */
+class HttpError extends RuntimeException {
+    final int status;
+    HttpError(int status, String message) { super(message); this.status = status; }
+}
+
+/**
+ * API HTTP/JSON nhúng (com.sun.net.httpserver) trên AppointmentManager, để nhiều quầy dùng chung
+ * 1 tiến trình thay cho vòng Scanner. Mỗi request chạy trên 1 virtual thread nếu JDK có
+ * (tra bằng reflection, JDK 21+); JDK cũ hơn dùng pool luồng thường có giới hạn. Manager đã
+ * thread-safe nên handler không cần khóa thêm.
+ *
+ *   GET  /api/patients?q=&page=&size=        GET/PUT /api/patients/{id}     POST /api/patients
+ *   GET  /api/doctors?department=            GET /api/doctors/{id}
+ *   GET  /api/doctors/{id}/appointments?from=&to=
+ *   GET  /api/doctors/{id}/free-slots?serviceId=&from=&to=&limit=
+ *   GET  /api/doctors/{id}/calendar?from=&to=  (ngày; mặc định tuần hiện tại)
+ *   GET  /api/services
+ *   POST /api/appointments                   GET /api/appointments/{id}
+ *   POST /api/appointments/{id}/cancel       POST /api/appointments/{id}/complete
+ *   GET  /api/invoices?status=unpaid|paid&limit=  (theo ngày tạo, cũ trước)
+ *   GET  /api/invoices/{id}                  POST /api/invoices/{id}/pay
+ *   GET  /api/reports/top-doctors?k=         GET /api/reports/monthly-revenue?year=&month=
+ *   GET  /api/reports/analytics?from=&to=    GET /api/reports/ageing?asOf=
+ *   GET  /api/metrics
+ *
+ * Thời gian dạng "yyyy-MM-dd HH:mm" (hoặc "yyyy-MM-ddTHH:mm"), ngày dạng "yyyy-MM-dd".
+ */
+final class ApiServer {
+    static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private final AppointmentManager manager;
+    private final Schedulable scheduler;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    ApiServer(AppointmentManager manager, int port) throws IOException {
+        this.manager = manager;
+        this.scheduler = MeteredScheduler.wrap(manager);
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+    }
+
+    void start() { server.start(); }
+
+    int port() { return server.getAddress().getPort(); }
+
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /** Virtual thread cho mỗi request nếu có (JDK 21+), không thì pool luồng thường có hàng đợi giới hạn */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int n = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+            AtomicInteger seq = new AtomicInteger();
+            // hàng đợi đầy thì luồng nhận kết nối tự chạy request: chậm lại thay vì bỏ request
+            return new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(10_000), r -> {
+                Thread t = new Thread(r, "api-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    // ===== định tuyến =====
+    private void handle(HttpExchange ex) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            String[] path = Arrays.stream(ex.getRequestURI().getPath().split("/")).filter(s -> !s.isEmpty()).skip(1).toArray(String[]::new);
+            Map<String, String> query = parseQuery(ex.getRequestURI().getRawQuery());
+            String method = ex.getRequestMethod();
+            if (path.length == 0) throw new HttpError(404, "Không có tài nguyên");
+            body = switch (path[0]) {
+                case "patients" -> patients(method, path, query, ex);
+                case "doctors" -> doctors(method, path, query);
+                case "services" -> { requireGet(method, path, 1); yield Json.array(manager.getServices().stream().map(Json::service).toList()); }
+                case "appointments" -> appointments(method, path, ex);
+                case "invoices" -> invoices(method, path, query);
+                case "reports" -> reports(method, path, query);
+                case "metrics" -> { requireGet(method, path, 1); yield Metrics.toJson(); }
+                default -> throw new HttpError(404, "Không có tài nguyên: " + path[0]);
+            };
+            // chỉ POST lên cả tập (/api/patients, /api/appointments) là tạo mới
+            if (method.equals("POST") && path.length == 1) status = 201;
+        } catch (HttpError e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (AppointmentConflictException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (PatientNotFoundException | DoctorNotFoundException | ServiceNotFoundException e) {
+            status = 404;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException | java.time.DateTimeException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (IOException e) {
+            // đọc nội dung yêu cầu lỗi (client ngắt giữa chừng...): vẫn trả lời để exchange được đóng
+            System.err.println("!! Không đọc được yêu cầu " + ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + e.getMessage());
+            status = 400;
+            body = error("Không đọc được nội dung yêu cầu");
+        } catch (RuntimeException e) {
+            // chi tiết (lớp lỗi, thông điệp, đường dẫn file...) chỉ ghi ở máy chủ, không trả cho client
+            System.err.println("!! Lỗi xử lý " + ex.getRequestMethod() + " " + ex.getRequestURI() + ": " + e);
+            e.printStackTrace();
+            status = 500;
+            body = error("Lỗi máy chủ");
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String patients(String method, String[] path, Map<String, String> query, HttpExchange ex) throws IOException {
+        if (path.length == 1 && method.equals("GET")) {
+            Page<Patient> page = manager.getPatientIndex().search(query.getOrDefault("q", ""),
+                    intParam(query, "page", 0), Math.min(500, intParam(query, "size", 20)));
+            return "{\"page\": " + page.getPage() + ", \"size\": " + page.getPageSize() + ", \"hasMore\": " + page.hasMore()
+                    + ", \"items\": " + Json.array(page.getItems().stream().map(Json::patient).toList()) + "}";
+        }
+        if (path.length == 1 && method.equals("POST")) {
+            Map<String, String> b = readBody(ex);
+            Patient p = new Patient(null, required(b, "fullName"), b.get("phone"), b.get("address"), b.get("insuranceNumber"));
+            manager.addPatient(p);
+            return Json.patient(p);
+        }
+        if (path.length == 2) {
+            Patient p = manager.getPatient(uuid(path[1]));
+            if (p == null) throw new HttpError(404, "Không tìm thấy bệnh nhân: " + path[1]);
+            if (method.equals("GET")) return Json.patient(p);
+            if (method.equals("PUT")) {
+                Map<String, String> b = readBody(ex);
+                manager.updatePatient(new Patient(p.getId(), b.getOrDefault("fullName", p.getFullName()),
+                        b.getOrDefault("phone", p.getPhone()), b.getOrDefault("address", p.getAddress()),
+                        b.getOrDefault("insuranceNumber", p.getInsuranceNumber())));
+                return Json.patient(manager.getPatient(p.getId()));
+            }
+        }
+        throw notAllowed(method, path);
+    }
+
+    private String doctors(String method, String[] path, Map<String, String> query) {
+        if (!method.equals("GET")) throw notAllowed(method, path);
+        if (path.length == 1) {
+            String dep = query.get("department");
+            Department department = dep == null ? null : Department.valueOf(dep.toUpperCase(Locale.ROOT));
+            return Json.array(manager.getDoctors().stream()
+                    .filter(d -> department == null || d.getDepartment() == department).map(Json::doctor).toList());
+        }
+        Doctor d = manager.getDoctor(uuid(path[1]));
+        if (d == null) throw new HttpError(404, "Không tìm thấy bác sĩ: " + path[1]);
+        if (path.length == 2) return Json.doctor(d);
+        if (path.length == 3 && path[2].equals("appointments")) {
+            List<Appointment> list = query.containsKey("from") || query.containsKey("to")
+                    ? scheduler.listAppointmentsByDoctor(d.getId(), time(query, "from", LocalDateTime.now().minusDays(30)),
+                            time(query, "to", LocalDateTime.now().plusDays(30)))
+                    : scheduler.listAppointmentsByDoctor(d.getId());
+            return Json.array(list.stream().map(Json::appointment).toList());
+        }
+        if (path.length == 3 && path[2].equals("calendar")) {
+            LocalDate monday = LocalDate.now().with(java.time.DayOfWeek.MONDAY);
+            LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : monday;
+            LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : from.plusDays(6);
+            if (to.toEpochDay() - from.toEpochDay() > 366) throw new IllegalArgumentException("Khoảng ngày tối đa 1 năm");
+            CalendarView view = manager.calendar(d.getId(), from, to);
+            List<String> days = new ArrayList<>();
+            view.utilisationByDay().forEach((day, u) -> days.add(String.format(Locale.ROOT, "{\"date\": %s, \"utilisation\": %.4f, \"appointments\": ",
+                    Json.quote(day), u) + Json.array(view.on(day).stream().map(Json::appointment).toList()) + "}"));
+            return String.format(Locale.ROOT, "{\"doctorId\": %s, \"from\": %s, \"to\": %s, \"utilisation\": %.4f, \"days\": ",
+                    Json.quote(d.getId()), Json.quote(from), Json.quote(to), view.utilisation()) + Json.array(days) + "}";
+        }
+        if (path.length == 3 && path[2].equals("free-slots")) {
+            MedicalService s = manager.getService(uuid(required(query, "serviceId")));
+            if (s == null) throw new HttpError(404, "Không tìm thấy dịch vụ: " + query.get("serviceId"));
+            LocalDateTime from = time(query, "from", LocalDateTime.now());
+            LocalDateTime to = time(query, "to", from.plusDays(7));
+            return Json.array(scheduler.findFreeSlots(d.getId(), s, from, to, Math.min(100, intParam(query, "limit", 5)))
+                    .stream().map(Json::slot).toList());
+        }
+        throw new HttpError(404, "Không có tài nguyên");
+    }
+
+    private String appointments(String method, String[] path, HttpExchange ex) throws IOException {
+        if (path.length == 1 && method.equals("POST")) {
+            Map<String, String> b = readBody(ex);
+            Appointment a = scheduler.book(uuid(required(b, "patientId")), uuid(required(b, "doctorId")),
+                    uuid(required(b, "serviceId")), parseTime(required(b, "start")));
+            return Json.appointment(a);
+        }
+        if (path.length < 2) throw notAllowed(method, path);
+        Appointment a = manager.getAppointment(uuid(path[1]));
+        if (a == null) throw new HttpError(404, "Không tìm thấy lịch hẹn: " + path[1]);
+        if (path.length == 2 && method.equals("GET")) return Json.appointment(a);
+        if (path.length == 3 && method.equals("POST")) {
+            switch (path[2]) {
+                case "cancel" -> scheduler.cancel(a.getId());
+                case "complete" -> scheduler.complete(a.getId());
+                default -> throw new HttpError(404, "Không có tài nguyên: " + path[2]);
+            }
+            return Json.appointment(a);
+        }
+        throw notAllowed(method, path);
+    }
+
+    private String invoices(String method, String[] path, Map<String, String> query) {
+        if (path.length == 1 && method.equals("GET")) {
+            String status = query.getOrDefault("status", "unpaid");
+            InvoiceLedger ledger = manager.getLedger();
+            java.util.stream.Stream<Invoice> list = switch (status) {
+                case "unpaid" -> ledger.unpaid();
+                case "paid" -> ledger.paid();
+                default -> throw new IllegalArgumentException("status phải là unpaid hoặc paid: " + status);
+            };
+            return Json.array(list.limit(Math.min(500, intParam(query, "limit", 50))).map(Json::invoice).toList());
+        }
+        if (path.length < 2) throw notAllowed(method, path);
+        Invoice inv = manager.getInvoice(uuid(path[1]));
+        if (inv == null) throw new HttpError(404, "Không tìm thấy hóa đơn: " + path[1]);
+        if (path.length == 2 && method.equals("GET")) return Json.invoice(inv);
+        if (path.length == 3 && path[2].equals("pay") && method.equals("POST")) {
+            manager.markPaid(inv.getId());
+            return Json.invoice(inv);
+        }
+        throw notAllowed(method, path);
+    }
+
+    private String reports(String method, String[] path, Map<String, String> query) {
+        if (!method.equals("GET") || path.length != 2) throw notAllowed(method, path);
+        switch (path[1]) {
+            case "top-doctors" -> {
+                List<String> rows = new ArrayList<>();
+                int k = intParam(query, "k", 3);
+                if (k < 1) throw new HttpError(400, "k phải >= 1: " + k);
+                for (Map.Entry<UUID, Long> e : manager.getAggregates().topDoctors(Math.min(100, k))) {
+                    Doctor d = manager.getDoctor(e.getKey());
+                    rows.add("{\"doctorId\": " + Json.quote(e.getKey()) + ", \"fullName\": " + Json.quote(d == null ? null : d.getFullName())
+                            + ", \"appointments\": " + e.getValue() + "}");
+                }
+                return Json.array(rows);
+            }
+            case "monthly-revenue" -> {
+                LocalDate now = LocalDate.now();
+                int year = intParam(query, "year", now.getYear()), month = intParam(query, "month", now.getMonthValue());
+                return String.format(Locale.ROOT, "{\"year\": %d, \"month\": %d, \"revenue\": %.2f, \"paid\": %.2f}", year, month,
+                        manager.getAggregates().monthlyRevenue(year, month), manager.getAggregates().monthlyPaidRevenue(year, month));
+            }
+            case "analytics" -> {
+                LocalDate from = LocalDate.parse(required(query, "from")), to = LocalDate.parse(required(query, "to"));
+                AnalyticsReport r = AnalyticsEngine.of(manager, from, to).analyze(from, to);
+                return String.format(Locale.ROOT, "{\"from\": %s, \"to\": %s, \"totalRevenue\": %.2f, \"cancellationRate\": %.4f, ",
+                        Json.quote(from), Json.quote(to), r.totalRevenue(), r.cancellationRate())
+                        + "\"revenueByDepartment\": " + numbers(r.revenueByDepartment())
+                        + ", \"revenueByServiceType\": " + numbers(r.revenueByServiceType())
+                        + ", \"utilisationByDepartment\": " + numbers(r.utilisationByDepartment())
+                        + ", \"cancellationRateByDepartment\": " + numbers(r.cancellationRateByDepartment()) + "}";
+            }
+            case "ageing" -> {
+                LocalDate asOf = query.containsKey("asOf") ? LocalDate.parse(query.get("asOf")) : LocalDate.now();
+                AgeingReport r = manager.ageingSummary(asOf);
+                List<String> buckets = new ArrayList<>();
+                for (AgeingBucket b : AgeingBucket.values()) {
+                    buckets.add(String.format(Locale.ROOT, "{\"bucket\": %s, \"count\": %d, \"amount\": %.2f}", Json.quote(b.label), r.count(b), r.amount(b)));
+                }
+                return String.format(Locale.ROOT, "{\"asOf\": %s, \"count\": %d, \"amount\": %.2f, \"buckets\": ",
+                        Json.quote(asOf), r.totalCount(), r.totalAmount()) + Json.array(buckets) + "}";
+            }
+            default -> throw new HttpError(404, "Không có báo cáo: " + path[1]);
+        }
+    }
+
+    // ===== helpers =====
+    private static String numbers(Map<?, Double> m) {
+        List<String> parts = new ArrayList<>();
+        m.forEach((k, v) -> parts.add(Json.quote(k) + String.format(Locale.ROOT, ": %.4f", v)));
+        return "{" + String.join(", ", parts) + "}";
+    }
+
+    private static String error(String message) { return "{\"error\": " + Json.quote(message) + "}"; }
+
+    private static void requireGet(String method, String[] path, int length) {
+        if (!method.equals("GET") || path.length != length) throw notAllowed(method, path);
+    }
+
+    private static HttpError notAllowed(String method, String[] path) {
+        return new HttpError(405, "Không hỗ trợ " + method + " /api/" + String.join("/", path));
+    }
+
+    private static Map<String, String> readBody(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) throw new HttpError(413, "Nội dung quá lớn");
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> parseQuery(String raw) {
+        Map<String, String> m = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return m;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            m.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return m;
+    }
+
+    private static String required(Map<String, String> m, String key) {
+        String v = m.get(key);
+        if (v == null || v.isBlank()) throw new IllegalArgumentException("Thiếu " + key);
+        return v;
+    }
+
+    private static int intParam(Map<String, String> m, String key, int def) {
+        String v = m.get(key);
+        return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+    }
+
+    private static UUID uuid(String s) { return UUID.fromString(s.trim()); }
+
+    private static LocalDateTime time(Map<String, String> m, String key, LocalDateTime def) {
+        String v = m.get(key);
+        return v == null || v.isBlank() ? def : parseTime(v);
+    }
+
+    static LocalDateTime parseTime(String s) { return DateTimeUtil.parse(s.trim().replace('T', ' '), Constants.DATE_TIME_PATTERN); }
+
+    /** java ApiServer [--port 8080]: nạp dữ liệu như ứng dụng console rồi phục vụ tới khi tắt tiến trình */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        for (int i = 0; i + 1 < args.length; i += 2) if (args[i].equals("--port")) port = Integer.parseInt(args[i + 1]);
+        AppointmentManager manager = AppointmentManager.loadOrSeed();
+        if (Metrics.ENABLED) {
+            Metrics.registerMBean();
+            Metrics.startDumping(Constants.METRICS_JSON, Constants.METRICS_DUMP_SECONDS);
+        }
+        ApiServer api = new ApiServer(manager, port);
+        // nhật ký và ghi nền đã có hook riêng khi tắt; ở đây chỉ dừng nhận request
+        BackgroundPersister.start(manager, Constants.PERSIST_INTERVAL_MS);
+        Runtime.getRuntime().addShutdownHook(new Thread(api::stop, "api-stop"));
+        api.start();
+        System.out.printf(">> API đang chạy tại http://localhost:%d/api/ (%d bệnh nhân, %d bác sĩ)%n",
+                api.port(), manager.getPatients().size(), manager.getDoctors().size());
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nhật ký ghi trước (write-ahead) chỉ nối thêm: mỗi thay đổi là 1 dòng "LOẠI,payload".
+ * Dữ liệu được gom lại và fsync theo lô mỗi SYNC_INTERVAL_MS thay vì fsync từng dòng.
+ * Khi nạp: đọc snapshot CSV rồi phát lại nhật ký; các bản ghi đều idempotent nên phát lại
+ * chồng lên snapshot mới hơn vẫn cho cùng kết quả.
+ *
+ * rotate() niêm phong file hiện tại thành đoạn "journal.log.N" và mở file mới, để ghi snapshot
+ * ở luồng nền mà không chặn thao tác ghi; đoạn chỉ bị xóa khi snapshot chứa nó đã nằm trên đĩa.
+ */
+final class MutationJournal implements Closeable {
+    // loại bản ghi
+    static final String PATIENT = "PATIENT";         // payload: Patient.toCSV() (thêm hoặc sửa)
+    static final String DOCTOR = "DOCTOR";           // payload: Doctor.toCSV()
+    static final String APPOINTMENT = "APPOINTMENT"; // payload: Appointment.toCSV()
+    static final String INVOICE = "INVOICE";         // payload: Invoice.toCSV()
+    static final String STATUS = "STATUS";           // payload: appointmentId,STATUS
+    static final String PAID = "PAID";               // payload: invoiceId
+
+    static final long SYNC_INTERVAL_MS = 50;
+
+    /** Nhận từng bản ghi khi phát lại */
+    interface Handler {
+        void apply(String type, String payload);
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private Writer out;
+    private final ScheduledExecutorService syncer;
+    private final Thread hook;
+    private long records;
+    private long lastSealed;
+    private boolean dirty;
+    private boolean closed;
+
+    private MutationJournal(Path path) throws IOException {
+        this.path = path;
+        for (long seq : sealedSegments(path)) lastSealed = Math.max(lastSealed, seq);
+        dropTornTail(path);
+        openChannel();
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        this.hook = new Thread(this::closeQuietly, "journal-close");
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Cắt phần đuôi sau ký tự '\n' cuối cùng (bản ghi ghi dở lúc sập). Không cắt thì bản ghi mới được nối
+     * thẳng vào dòng dở, thành 1 dòng hỏng nằm giữa file và lần khởi động sau phát lại bị lỗi.
+     */
+    private static void dropTornTail(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size(), end = size;
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            scan:
+            while (end > 0) {
+                long from = Math.max(0, end - buf.capacity());
+                buf.clear().limit((int) (end - from));
+                while (buf.hasRemaining()) if (ch.read(buf, from + buf.position()) < 0) throw new EOFException(path.toString());
+                for (int i = buf.position() - 1; i >= 0; i--) {
+                    if (buf.get(i) == '\n') { end = from + i + 1; break scan; }
+                }
+                end = from;
+            }
+            if (end < size) {
+                ch.truncate(end);
+                ch.force(true);
+            }
+        }
+    }
+
+    static MutationJournal open(String path) {
+        try {
+            return new MutationJournal(Paths.get(path));
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    synchronized void append(String type, String payload) {
+        if (closed) throw new IllegalStateException("Nhật ký đã đóng");
+        try {
+            out.write(type);
+            out.write(',');
+            out.write(payload);
+            out.write('\n');
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        records++;
+        dirty = true;
+    }
+
+    /** Số bản ghi kể từ lần truncate gần nhất */
+    synchronized long records() { return records; }
+
+    /** Đẩy bộ đệm xuống đĩa và fsync (gọi định kỳ bởi luồng nền) */
+    synchronized void sync() {
+        if (!dirty || closed) return;
+        try {
+            out.flush();
+            channel.force(false);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        dirty = false;
+    }
+
+    /** Xóa nhật ký (cả các đoạn đã niêm phong) sau khi snapshot đã ghi xong */
+    synchronized void truncate() {
+        try {
+            out.flush();
+            channel.truncate(0);
+            channel.force(true);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        records = 0;
+        dirty = false;
+        dropSealed(lastSealed);
+    }
+
+    /**
+     * Niêm phong file hiện tại thành đoạn số N (fsync rồi đổi tên), bản ghi sau đó vào file mới.
+     * Trả về N, hoặc -1 nếu nhật ký đã đóng (khi đó không niêm phong gì).
+     */
+    synchronized long rotate() {
+        if (closed) return -1;
+        try {
+            out.flush();
+            channel.force(false);
+            out.close();
+            try {
+                Files.move(path, segment(path, lastSealed + 1), StandardCopyOption.ATOMIC_MOVE);
+                lastSealed++;
+            } finally {
+                // đổi tên lỗi thì ghi tiếp vào file cũ
+                openChannel();
+            }
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        records = 0;
+        dirty = false;
+        return lastSealed;
+    }
+
+    /** Xóa các đoạn đã niêm phong có số <= upTo (snapshot đã chứa chúng) */
+    void dropSealed(long upTo) {
+        try {
+            for (long seq : sealedSegments(path)) if (seq <= upTo) Files.deleteIfExists(segment(path, seq));
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        try {
+            sync();
+        } finally {
+            closed = true;
+            syncer.shutdown();
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                // nhật ký đóng sớm (đổi manager, attachJournal lại) không để hook giữ nó tới khi tắt JVM
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // đang trong lúc tắt JVM (chính hook này đang chạy)
+                }
+            }
+        }
+    }
+
+    private void syncQuietly() {
+        try { sync(); } catch (UncheckedIOException e) { System.err.println("!! Lỗi fsync nhật ký: " + e.getMessage()); }
+    }
+    private void closeQuietly() {
+        try { close(); } catch (UncheckedIOException e) { System.err.println("!! Lỗi đóng nhật ký: " + e.getMessage()); }
+    }
+
+    private static Path segment(Path path, long seq) { return path.resolveSibling(path.getFileName() + "." + seq); }
+
+    // số của các đoạn "journal.log.N" đang có, tăng dần
+    private static List<Long> sealedSegments(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName() + ".";
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+            for (Path f : files) {
+                String suffix = f.getFileName().toString().substring(prefix.length());
+                if (suffix.matches("\\d+")) result.add(Long.parseLong(suffix));
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Phát lại các đoạn đã niêm phong theo số rồi tới file hiện tại; trả về tổng số bản ghi */
+    static int replay(String path, Handler handler) {
+        Path p = Paths.get(path);
+        int applied = 0;
+        try {
+            for (long seq : sealedSegments(p)) applied += replayFile(segment(p, seq), handler);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        return applied + replayFile(p, handler);
+    }
+
+    /**
+     * Phát lại 1 file theo thứ tự ghi. Mỗi bản ghi kết thúc bằng '\n' nên phần sau '\n' cuối cùng là bản
+     * ghi dở lúc sập: bỏ qua (kể cả khi nó tình cờ đọc được); open() sẽ cắt nó khỏi file.
+     * Dòng đầy đủ mà lỗi thì ném ra vì dữ liệu phía sau không còn tin cậy.
+     */
+    private static int replayFile(Path p, Handler handler) {
+        if (!Files.exists(p)) return 0;
+        String text;
+        try {
+            text = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+        int applied = 0;
+        for (int start = 0, nl; (nl = text.indexOf('\n', start)) >= 0; start = nl + 1) {
+            if (nl == start) continue;
+            String line = text.substring(start, nl);
+            int comma = line.indexOf(',');
+            if (comma < 0) throw new IllegalArgumentException("Bản ghi nhật ký không hợp lệ: " + line);
+            handler.apply(line.substring(0, comma), line.substring(comma + 1));
+            applied++;
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,361 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Nhiều cơ sở (shard), mỗi cơ sở là 1 AppointmentManager riêng với thư mục dữ liệu, nhật ký, khóa,
+ * đồng hồ phiên bản và pool luồng riêng, nên đặt lịch ở các cơ sở khác nhau không tranh nhau gì.
+ * Bác sĩ (cùng lịch hẹn, hóa đơn của họ) thuộc đúng 1 cơ sở theo băm doctorId; thao tác theo bác sĩ
+ * (Schedulable) được chuyển thẳng tới cơ sở đó. Truy vấn theo khoa/toàn viện (khung trống, báo cáo,
+ * tìm bệnh nhân) gửi song song tới mọi cơ sở rồi gộp kết quả.
+ *
+ * Bệnh nhân có 1 cơ sở gốc (theo băm id) và được chép sang cơ sở của bác sĩ khi đặt lịch lần đầu;
+ * sửa thông tin thì sửa ở mọi cơ sở đang giữ bản chép. Dịch vụ được chép sẵn ở mọi cơ sở.
+ * Số cơ sở cố định khi tạo (partition); đổi số cơ sở thì phải chia lại từ đầu.
+ */
+final class ShardedManager implements Schedulable, Closeable {
+    static final String SHARD_DIR = "shard-";
+
+    private final AppointmentManager[] shards;
+    private final ExecutorService[] executors;
+    // khóa theo bệnh nhân: chép sang cơ sở mới và sửa thông tin không xen nhau
+    private final StripedLocks patientLocks = new StripedLocks(AppointmentManager.LOCK_STRIPES);
+    private BackgroundPersister persister;
+
+    ShardedManager(List<AppointmentManager> shards) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("Cần ít nhất 1 cơ sở");
+        this.shards = shards.toArray(new AppointmentManager[0]);
+        this.executors = new ExecutorService[this.shards.length];
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / this.shards.length);
+        for (int i = 0; i < executors.length; i++) {
+            int shard = i;
+            int[] seq = {0};
+            executors[i] = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "shard-" + shard + "-" + seq[0]++);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Chia dữ liệu của 1 manager thành n cơ sở, ghi mỗi cơ sở vào root/shard-i rồi bật nhật ký.
+     * Các thực thể được chép nên manager nguồn không còn dính với các cơ sở sau khi chia.
+     */
+    static ShardedManager partition(AppointmentManager source, int n, Path root) {
+        if (n < 1) throw new IllegalArgumentException("Số cơ sở không hợp lệ: " + n);
+        List<List<Doctor>> doctors = buckets(n);
+        List<List<Appointment>> appointments = buckets(n);
+        List<List<Invoice>> invoices = buckets(n);
+        List<Set<UUID>> patientIds = new ArrayList<>();
+        for (int i = 0; i < n; i++) patientIds.add(new HashSet<>());
+
+        for (Doctor d : source.getDoctors()) {
+            doctors.get(shardOf(d.getId(), n)).add(new Doctor(d.getId(), d.getFullName(), d.getPhone(), d.getAddress(), d.getDepartment()));
+        }
+        for (Appointment a : source.getAppointments()) {
+            int s = shardOf(a.getDoctorId(), n);
+            appointments.get(s).add(new Appointment(a.getId(), a.getPatientId(), a.getDoctorId(), a.getServiceId(), a.getStart(), a.getEnd(), a.getStatus()));
+            patientIds.get(s).add(a.getPatientId());
+        }
+        for (Invoice inv : source.getInvoices()) {
+            Appointment a = source.getAppointment(inv.getAppointmentId());
+            if (a == null) continue; // hóa đơn mồ côi: không biết thuộc cơ sở nào
+            invoices.get(shardOf(a.getDoctorId(), n)).add(new Invoice(inv.getId(), inv.getAppointmentId(), inv.getAmount(), inv.getCreatedAt(), inv.isPaid()));
+        }
+
+        List<AppointmentManager> shards = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            List<Patient> patients = new ArrayList<>();
+            for (Patient p : source.getPatients()) {
+                if (shardOf(p.getId(), n) == i || patientIds.get(i).contains(p.getId())) patients.add(copy(p));
+            }
+            List<MedicalService> services = new ArrayList<>();
+            for (MedicalService s : source.getServices()) services.add(MedicalService.fromCSV(s.toCSV()));
+
+            Path dir = root.resolve(SHARD_DIR + i);
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            AppointmentManager m = new AppointmentManager(patients, doctors.get(i), services, appointments.get(i), invoices.get(i));
+            m.setDataDir(dir);
+            if (Constants.HISTORY_ENABLED) m.attachHistory(dir.resolve(Constants.HISTORY_DIR).toString());
+            m.saveAll();
+            m.attachJournal(dir.resolve(Constants.JOURNAL_LOG).toString());
+            shards.add(m);
+        }
+        return new ShardedManager(shards);
+    }
+
+    /** Nạp song song các cơ sở root/shard-0, shard-1, ... (như AppointmentManager.loadAll cho từng thư mục) */
+    static ShardedManager open(Path root) {
+        List<Path> dirs = new ArrayList<>();
+        for (int i = 0; Files.isDirectory(root.resolve(SHARD_DIR + i)); i++) dirs.add(root.resolve(SHARD_DIR + i));
+        if (dirs.isEmpty()) throw new IllegalStateException("Không có cơ sở nào trong " + root.toAbsolutePath());
+        List<CompletableFuture<AppointmentManager>> loads = new ArrayList<>();
+        for (Path dir : dirs) loads.add(CompletableFuture.supplyAsync(() -> AppointmentManager.loadAll(dir)));
+        List<AppointmentManager> shards = new ArrayList<>();
+        for (CompletableFuture<AppointmentManager> f : loads) shards.add(join(f));
+        return new ShardedManager(shards);
+    }
+
+    /**
+     * Bật ghi nền cho mọi cơ sở trên 1 luồng chung (mỗi lượt ghi lần lượt từng cơ sở): mỗi cơ sở 1 luồng
+     * với cùng chu kỳ thì tổng số lần ghi lại file tăng theo số cơ sở. Dừng cùng close().
+     */
+    synchronized void startPersister(long intervalMs) {
+        if (persister == null) persister = BackgroundPersister.start(Arrays.asList(shards), intervalMs);
+    }
+
+    int shardCount() { return shards.length; }
+    AppointmentManager shard(int i) { return shards[i]; }
+    AppointmentManager shardFor(UUID doctorId) { return shards[shardOf(doctorId, shards.length)]; }
+
+    static int shardOf(UUID id, int n) { return Math.floorMod(id.hashCode(), n); }
+
+    // ===== Schedulable: chuyển theo bác sĩ =====
+    @Override
+    public Appointment book(UUID patientId, UUID doctorId, UUID serviceId, LocalDateTime start) {
+        AppointmentManager shard = shardFor(doctorId);
+        ensurePatient(shard, patientId);
+        return shard.book(patientId, doctorId, serviceId, start);
+    }
+
+    /**
+     * Nhóm theo cơ sở, mỗi nhóm đặt trên pool của cơ sở đó (song song giữa các cơ sở), kết quả giữ
+     * thứ tự yêu cầu. atomic chỉ đảm bảo được trong 1 cơ sở nên lô atomic trải nhiều cơ sở bị từ chối.
+     */
+    @Override
+    public List<BookingResult> bookAll(List<BookingRequest> requests, boolean atomic) {
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            byShard.computeIfAbsent(shardOf(requests.get(i).getDoctorId(), shards.length), k -> new ArrayList<>()).add(i);
+        }
+        if (atomic && byShard.size() > 1) throw new IllegalArgumentException("Lô atomic phải cùng 1 cơ sở (" + byShard.size() + " cơ sở)");
+
+        BookingResult[] results = new BookingResult[requests.size()];
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> e : byShard.entrySet()) {
+            AppointmentManager shard = shards[e.getKey()];
+            List<Integer> idx = e.getValue();
+            parts.add(CompletableFuture.runAsync(() -> {
+                List<BookingRequest> part = new ArrayList<>(idx.size());
+                for (int i : idx) {
+                    ensurePatient(shard, requests.get(i).getPatientId());
+                    part.add(requests.get(i));
+                }
+                List<BookingResult> res = shard.bookAll(part, atomic);
+                for (int k = 0; k < idx.size(); k++) results[idx.get(k)] = res.get(k);
+            }, executors[e.getKey()]));
+        }
+        for (CompletableFuture<Void> f : parts) join(f);
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<FreeSlot> findFreeSlots(UUID doctorId, MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        if (doctorId == null) throw new IllegalArgumentException("Thiếu bác sĩ");
+        return shardFor(doctorId).findFreeSlots(doctorId, service, from, to, limit);
+    }
+
+    /** Mỗi cơ sở tìm limit khung sớm nhất của khoa, gộp theo giờ bắt đầu rồi cắt limit */
+    @Override
+    public List<FreeSlot> findFreeSlots(Department department, MedicalService service, LocalDateTime from, LocalDateTime to, int limit) {
+        if (department == null) throw new IllegalArgumentException("Thiếu khoa");
+        AppointmentManager.checkSlotQuery(service, from, to, limit);
+        return scatter(m -> m.findFreeSlots(department, service, from, to, limit)).stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(FreeSlot::getStart))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void cancel(UUID appointmentId) { shardOfAppointment(appointmentId).cancel(appointmentId); }
+
+    @Override
+    public void complete(UUID appointmentId) { shardOfAppointment(appointmentId).complete(appointmentId); }
+
+    @Override
+    public List<Appointment> listAppointmentsByDoctor(UUID doctorId) { return shardFor(doctorId).listAppointmentsByDoctor(doctorId); }
+
+    @Override
+    public List<Appointment> listAppointmentsByDoctor(UUID doctorId, LocalDateTime from, LocalDateTime to) {
+        return shardFor(doctorId).listAppointmentsByDoctor(doctorId, from, to);
+    }
+
+    @Override
+    public boolean isAvailable(UUID doctorId, LocalDateTime start, LocalDateTime end) { return shardFor(doctorId).isAvailable(doctorId, start, end); }
+
+    // ===== thực thể =====
+    void addDoctor(Doctor d) { shardFor(d.getId()).addDoctor(d); }
+
+    void addPatient(Patient p) { shards[shardOf(p.getId(), shards.length)].addPatient(p); }
+
+    /** Sửa ở mọi cơ sở đang giữ bệnh nhân (cơ sở gốc trước) */
+    void updatePatient(Patient changes) {
+        ReentrantLock lock = patientLocks.lockFor(changes.getId());
+        lock.lock();
+        try {
+            home(changes.getId()).updatePatient(changes);
+            for (AppointmentManager m : shards) {
+                if (m != home(changes.getId()) && m.getPatient(changes.getId()) != null) m.updatePatient(copy(changes));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void markPaid(UUID invoiceId) {
+        for (AppointmentManager m : shards) {
+            if (m.getInvoice(invoiceId) != null) { m.markPaid(invoiceId); return; }
+        }
+        throw new IllegalArgumentException("Không tìm thấy hóa đơn: " + invoiceId);
+    }
+
+    Patient getPatient(UUID id) { return home(id).getPatient(id); }
+    Doctor getDoctor(UUID id) { return shardFor(id).getDoctor(id); }
+
+    Appointment getAppointment(UUID id) {
+        for (AppointmentManager m : shards) {
+            Appointment a = m.getAppointment(id);
+            if (a != null) return a;
+        }
+        return null;
+    }
+
+    // ===== truy vấn toàn viện: gửi song song rồi gộp =====
+    /**
+     * Tìm bệnh nhân ở mọi cơ sở (như PatientSearchIndex.search), trộn xen kẽ theo thứ hạng của từng
+     * cơ sở và bỏ bản chép trùng id, lấy tối đa limit người.
+     */
+    List<Patient> searchPatients(String query, int limit) {
+        List<List<Patient>> parts = scatter(m -> m.getPatientIndex().search(query, 0, limit).getItems());
+        Map<UUID, Patient> merged = new LinkedHashMap<>();
+        for (int rank = 0; merged.size() < limit; rank++) {
+            boolean any = false;
+            for (List<Patient> part : parts) {
+                if (rank >= part.size()) continue;
+                any = true;
+                Patient p = part.get(rank);
+                merged.putIfAbsent(p.getId(), p);
+                if (merged.size() == limit) break;
+            }
+            if (!any) break;
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /** k bác sĩ nhiều lịch nhất toàn viện (mỗi bác sĩ chỉ ở 1 cơ sở nên top k của từng cơ sở là đủ) */
+    List<Map.Entry<UUID, Long>> topDoctors(int k) {
+        return scatter(m -> m.getAggregates().topDoctors(k)).stream()
+                .flatMap(List::stream)
+                .sorted(Map.Entry.<UUID, Long>comparingByValue().reversed())
+                .limit(k)
+                .collect(Collectors.toList());
+    }
+
+    double monthlyRevenue(int year, int month) {
+        return scatter(m -> m.getAggregates().monthlyRevenue(year, month)).stream().mapToDouble(Double::doubleValue).sum();
+    }
+
+    AgeingReport ageingSummary(LocalDate asOf) {
+        AgeingReport total = new AgeingReport(asOf);
+        for (AgeingReport r : scatter(m -> m.ageingSummary(asOf))) total.merge(r);
+        return total;
+    }
+
+    /** Báo cáo phân tích [from, to) trên dữ liệu gộp của mọi cơ sở (kể cả các tháng đã lưu trữ) */
+    AnalyticsReport analyze(LocalDate from, LocalDate to) {
+        LocalDateTime lo = from.atStartOfDay(), hi = to.atStartOfDay();
+        List<List<Appointment>> appts = scatter(m -> m.appointmentsBetween(lo, hi));
+        List<List<Invoice>> invs = scatter(m -> m.invoicesBetween(lo, hi));
+        List<Doctor> doctors = new ArrayList<>();
+        for (AppointmentManager m : shards) doctors.addAll(m.getDoctors());
+        List<Appointment> appointments = appts.stream().flatMap(List::stream).collect(Collectors.toList());
+        List<Invoice> invoices = invs.stream().flatMap(List::stream).collect(Collectors.toList());
+        return AnalyticsEngine.of(doctors, shards[0].getServices(), appointments, invoices).analyze(from, to);
+    }
+
+    // ===== lưu & đóng =====
+    void saveAll() { scatter(m -> { m.saveAll(); return null; }); }
+
+    @Override
+    public synchronized void close() {
+        if (persister != null) { persister.close(); persister = null; }
+        for (AppointmentManager m : shards) m.closeJournal();
+        for (ExecutorService e : executors) e.shutdown();
+    }
+
+    // ===== nội bộ =====
+    private AppointmentManager home(UUID patientId) { return shards[shardOf(patientId, shards.length)]; }
+
+    // bệnh nhân chưa có ở cơ sở của bác sĩ thì chép từ cơ sở gốc; không có ở gốc thì để book báo lỗi như cũ
+    private void ensurePatient(AppointmentManager shard, UUID patientId) {
+        if (shard.getPatient(patientId) == null) copyPatient(shard, patientId);
+    }
+
+    private void copyPatient(AppointmentManager shard, UUID patientId) {
+        ReentrantLock lock = patientLocks.lockFor(patientId);
+        lock.lock();
+        try {
+            Patient p = home(patientId).getPatient(patientId);
+            if (p != null && shard.getPatient(patientId) == null) shard.addPatient(copy(p));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AppointmentManager shardOfAppointment(UUID appointmentId) {
+        for (AppointmentManager m : shards) if (m.getAppointment(appointmentId) != null) return m;
+        throw new IllegalArgumentException("Không tìm thấy lịch hẹn: " + appointmentId);
+    }
+
+    // chạy query trên pool của từng cơ sở, chờ đủ rồi trả về theo thứ tự cơ sở
+    private <T> List<T> scatter(Function<AppointmentManager, T> query) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            AppointmentManager m = shards[i];
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(m), executors[i]));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> f : futures) results.add(join(f));
+        return results;
+    }
+
+    // mỗi cơ sở giữ đối tượng riêng: applyPatient sửa tại chỗ nên không được dùng chung giữa các cơ sở
+    private static Patient copy(Patient p) {
+        return new Patient(p.getId(), p.getFullName(), p.getPhone(), p.getAddress(), p.getInsuranceNumber());
+    }
+
+    private static <T> List<List<T>> buckets(int n) {
+        List<List<T>> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) result.add(new ArrayList<>());
+        return result;
+    }
+
+    // ném lại lỗi gốc (vd. AppointmentConflictException) thay vì CompletionException
+    private static <T> T join(CompletableFuture<T> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error err) throw err;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Phân tích lịch sử lịch hẹn + hóa đơn trên khoảng ngày tùy ý [from, to): doanh thu theo khoa,
+ * loại dịch vụ, bác sĩ, ngày; tỉ lệ sử dụng và tỉ lệ hủy của bác sĩ/khoa.
+ *
+ * Mỗi phép gom nhóm là 1 lượt parallel stream gom vào mảng cộng dồn riêng của từng luồng
+ * (chỉ số bác sĩ/loại dịch vụ/ngày tra bằng bảng băm dựng 1 lần), rồi ghép mảng ở cuối; không
+ * có khóa hay Map dùng chung trong lúc quét. Hóa đơn được nối với lịch hẹn qua bảng băm theo id.
+ *
+ * Quy ước: lịch hẹn thuộc khoảng theo giờ bắt đầu; doanh thu là hóa đơn của lịch không bị hủy,
+ * tính vào ngày khám; tỉ lệ sử dụng = số phút đã đặt (không tính lịch hủy) / số phút làm việc
+ * (thứ 2 - thứ 7, WORK_START_HOUR - WORK_END_HOUR).
+ */
+final class AnalyticsEngine {
+
+    static final String[] SERVICE_TYPES = {"ExaminationService", "TestService", "SurgeryService", "Other"};
+
+    private final List<Doctor> doctors;
+    private final List<Appointment> appointments;
+    private final List<Invoice> invoices;
+    private final Function<UUID, Appointment> appointmentById;
+    private final Map<UUID, Integer> doctorIndex = new HashMap<>();
+    private final Map<UUID, Integer> serviceType = new HashMap<>();
+
+    AnalyticsEngine(List<Doctor> doctors, List<MedicalService> services, List<Appointment> appointments,
+                    List<Invoice> invoices, Function<UUID, Appointment> appointmentById) {
+        this.doctors = List.copyOf(doctors); // chụp lại để chỉ số bác sĩ không lệch khi có bác sĩ mới
+        this.appointments = appointments;
+        this.invoices = invoices;
+        this.appointmentById = appointmentById;
+        for (int i = 0; i < this.doctors.size(); i++) doctorIndex.put(this.doctors.get(i).getId(), i);
+        for (MedicalService s : services) serviceType.put(s.getId(), typeOf(s));
+    }
+
+    /** Chỉ dữ liệu đang nạp của manager, đọc qua bản chụp nên không vướng luồng đang đặt lịch */
+    static AnalyticsEngine of(AppointmentManager mgr) {
+        try (ReadSnapshot s = mgr.snapshot()) {
+            return of(s);
+        }
+    }
+
+    /** Dữ liệu của 1 bản chụp (chép ra danh sách để phân tích song song) */
+    static AnalyticsEngine of(ReadSnapshot s) {
+        return of(s.getDoctors(), s.getServices(), s.appointments().collect(Collectors.toList()), s.invoices().collect(Collectors.toList()));
+    }
+
+    /** Khoảng ngày [from, to) của manager, gồm cả các tháng đã lưu trữ (nạp lười) */
+    static AnalyticsEngine of(AppointmentManager mgr, LocalDate from, LocalDate to) {
+        LocalDateTime lo = from.atStartOfDay(), hi = to.atStartOfDay();
+        return of(mgr.getDoctors(), mgr.getServices(), mgr.appointmentsBetween(lo, hi), mgr.invoicesBetween(lo, hi));
+    }
+
+    /** Cho danh sách rời (vd. đọc từ file CSV cũ): tự dựng bảng băm id -> lịch hẹn */
+    static AnalyticsEngine of(List<Doctor> doctors, List<MedicalService> services,
+                              List<Appointment> appointments, List<Invoice> invoices) {
+        Map<UUID, Appointment> byId = appointments.parallelStream()
+                .collect(Collectors.toConcurrentMap(Appointment::getId, a -> a, (a, b) -> a));
+        return new AnalyticsEngine(doctors, services, appointments, invoices, byId::get);
+    }
+
+    AnalyticsReport analyze(LocalDate from, LocalDate to) {
+        if (!from.isBefore(to)) throw new IllegalArgumentException("Khoảng ngày không hợp lệ: " + from + " - " + to);
+        LocalDateTime lo = from.atStartOfDay(), hi = to.atStartOfDay();
+        int days = (int) (to.toEpochDay() - from.toEpochDay());
+        int nDoctors = doctors.size();
+
+        Totals t = appointments.parallelStream()
+                .filter(a -> !a.getStart().isBefore(lo) && a.getStart().isBefore(hi))
+                .collect(() -> new Totals(nDoctors), (acc, a) -> acc.add(a), Totals::merge);
+
+        Revenue r = invoices.parallelStream()
+                .collect(() -> new Revenue(nDoctors, days), (acc, inv) -> {
+                    Appointment a = appointmentById.apply(inv.getAppointmentId());
+                    if (a == null || a.getStatus() == AppointmentStatus.CANCELLED) return;
+                    LocalDateTime st = a.getStart();
+                    if (st.isBefore(lo) || !st.isBefore(hi)) return;
+                    acc.add(doctorIndex.getOrDefault(a.getDoctorId(), -1),
+                            serviceType.getOrDefault(a.getServiceId(), SERVICE_TYPES.length - 1),
+                            (int) (st.toLocalDate().toEpochDay() - from.toEpochDay()), inv.getAmount());
+                }, Revenue::merge);
+
+        return new AnalyticsReport(from, to, doctors, t, r, workingMinutes(from, to));
+    }
+
+    // ===== bộ cộng dồn theo luồng =====
+    /** Đếm lịch theo bác sĩ: tổng, số bị hủy, số phút đã đặt */
+    final class Totals {
+        final long[] total, cancelled, bookedMinutes;
+        Totals(int n) { total = new long[n]; cancelled = new long[n]; bookedMinutes = new long[n]; }
+
+        void add(Appointment a) {
+            Integer d = doctorIndex.get(a.getDoctorId());
+            if (d == null) return;
+            total[d]++;
+            if (a.getStatus() == AppointmentStatus.CANCELLED) cancelled[d]++;
+            else bookedMinutes[d] += Duration.between(a.getStart(), a.getEnd()).toMinutes();
+        }
+
+        void merge(Totals o) {
+            for (int i = 0; i < total.length; i++) {
+                total[i] += o.total[i]; cancelled[i] += o.cancelled[i]; bookedMinutes[i] += o.bookedMinutes[i];
+            }
+        }
+    }
+
+    /** Doanh thu theo bác sĩ / loại dịch vụ / ngày */
+    static final class Revenue {
+        final double[] byDoctor, byServiceType, byDay;
+        double unassigned; // hóa đơn của bác sĩ không còn trong danh sách
+        Revenue(int doctors, int days) {
+            byDoctor = new double[doctors]; byServiceType = new double[SERVICE_TYPES.length]; byDay = new double[days];
+        }
+
+        void add(int doctor, int type, int day, double amount) {
+            if (doctor >= 0) byDoctor[doctor] += amount; else unassigned += amount;
+            byServiceType[type] += amount;
+            byDay[day] += amount;
+        }
+
+        void merge(Revenue o) {
+            for (int i = 0; i < byDoctor.length; i++) byDoctor[i] += o.byDoctor[i];
+            for (int i = 0; i < byServiceType.length; i++) byServiceType[i] += o.byServiceType[i];
+            for (int i = 0; i < byDay.length; i++) byDay[i] += o.byDay[i];
+            unassigned += o.unassigned;
+        }
+    }
+
+    // ===== helpers =====
+    private static int typeOf(MedicalService s) {
+        if (s instanceof ExaminationService) return 0;
+        if (s instanceof TestService) return 1;
+        if (s instanceof SurgeryService) return 2;
+        return 3;
+    }
+
+    /** Số phút làm việc của 1 bác sĩ trong khoảng (trừ ngày nghỉ Constants.DAY_OFF) */
+    static long workingMinutes(LocalDate from, LocalDate to) {
+        long days = to.toEpochDay() - from.toEpochDay();
+        long firstOff = (Constants.DAY_OFF.getValue() - from.getDayOfWeek().getValue() + 7) % 7;
+        long daysOff = firstOff >= days ? 0 : 1 + (days - 1 - firstOff) / 7;
+        return (days - daysOff) * (Constants.WORK_END_HOUR - Constants.WORK_START_HOUR) * 60L;
+    }
+}
+
+/** Kết quả phân tích cho 1 khoảng ngày (chỉ đọc) */
+final class AnalyticsReport {
+    private final LocalDate from, to;
+    private final List<Doctor> doctors;
+    private final AnalyticsEngine.Totals totals;
+    private final AnalyticsEngine.Revenue revenue;
+    private final long workingMinutes;
+
+    AnalyticsReport(LocalDate from, LocalDate to, List<Doctor> doctors, AnalyticsEngine.Totals totals,
+                    AnalyticsEngine.Revenue revenue, long workingMinutes) {
+        this.from = from; this.to = to; this.doctors = doctors;
+        this.totals = totals; this.revenue = revenue; this.workingMinutes = workingMinutes;
+    }
+
+    public LocalDate getFrom(){ return from; }
+    public LocalDate getTo(){ return to; }
+
+    double totalRevenue() {
+        double s = revenue.unassigned;
+        for (double v : revenue.byDoctor) s += v;
+        return s;
+    }
+
+    Map<UUID, Double> revenueByDoctor() {
+        Map<UUID, Double> m = new LinkedHashMap<>();
+        for (int i = 0; i < doctors.size(); i++) m.put(doctors.get(i).getId(), revenue.byDoctor[i]);
+        return m;
+    }
+
+    Map<Department, Double> revenueByDepartment() {
+        Map<Department, Double> m = new EnumMap<>(Department.class);
+        for (Department d : Department.values()) m.put(d, 0.0);
+        for (int i = 0; i < doctors.size(); i++) m.merge(doctors.get(i).getDepartment(), revenue.byDoctor[i], Double::sum);
+        return m;
+    }
+
+    /** Khóa là tên lớp dịch vụ (ExaminationService/TestService/SurgeryService) */
+    Map<String, Double> revenueByServiceType() {
+        Map<String, Double> m = new LinkedHashMap<>();
+        for (int i = 0; i < AnalyticsEngine.SERVICE_TYPES.length; i++) m.put(AnalyticsEngine.SERVICE_TYPES[i], revenue.byServiceType[i]);
+        return m;
+    }
+
+    SortedMap<LocalDate, Double> revenueByDay() {
+        SortedMap<LocalDate, Double> m = new TreeMap<>();
+        for (int i = 0; i < revenue.byDay.length; i++) m.put(from.plusDays(i), revenue.byDay[i]);
+        return m;
+    }
+
+    /** Tỉ lệ sử dụng (0..1) theo bác sĩ */
+    Map<UUID, Double> utilisationByDoctor() {
+        Map<UUID, Double> m = new LinkedHashMap<>();
+        for (int i = 0; i < doctors.size(); i++) m.put(doctors.get(i).getId(), ratio(totals.bookedMinutes[i], workingMinutes));
+        return m;
+    }
+
+    /** Tỉ lệ sử dụng trung bình của các bác sĩ trong khoa */
+    Map<Department, Double> utilisationByDepartment() {
+        Map<Department, Double> m = new EnumMap<>(Department.class);
+        long[] booked = new long[Department.values().length], headcount = new long[booked.length];
+        for (int i = 0; i < doctors.size(); i++) {
+            int d = doctors.get(i).getDepartment().ordinal();
+            booked[d] += totals.bookedMinutes[i];
+            headcount[d]++;
+        }
+        for (Department d : Department.values()) m.put(d, ratio(booked[d.ordinal()], headcount[d.ordinal()] * workingMinutes));
+        return m;
+    }
+
+    Map<UUID, Double> cancellationRateByDoctor() {
+        Map<UUID, Double> m = new LinkedHashMap<>();
+        for (int i = 0; i < doctors.size(); i++) m.put(doctors.get(i).getId(), ratio(totals.cancelled[i], totals.total[i]));
+        return m;
+    }
+
+    Map<Department, Double> cancellationRateByDepartment() {
+        Map<Department, Double> m = new EnumMap<>(Department.class);
+        long[] cancelled = new long[Department.values().length], total = new long[cancelled.length];
+        for (int i = 0; i < doctors.size(); i++) {
+            int d = doctors.get(i).getDepartment().ordinal();
+            cancelled[d] += totals.cancelled[i];
+            total[d] += totals.total[i];
+        }
+        for (Department d : Department.values()) m.put(d, ratio(cancelled[d.ordinal()], total[d.ordinal()]));
+        return m;
+    }
+
+    double cancellationRate() {
+        long c = 0, t = 0;
+        for (int i = 0; i < doctors.size(); i++) { c += totals.cancelled[i]; t += totals.total[i]; }
+        return ratio(c, t);
+    }
+
+    private static double ratio(long a, long b) { return b == 0 ? 0 : (double) a / b; }
+}
@@ -9,7 +9,7 @@ class Appointment implements Persistable {
     private UUID serviceId;
     private LocalDateTime start;
     private LocalDateTime end;
-    private AppointmentStatus status;
+    private volatile AppointmentStatus status;
 
     public Appointment() {}
     public Appointment(UUID id, UUID patientId, UUID doctorId, UUID serviceId,
@@ -30,20 +30,21 @@ class Appointment implements Persistable {
 
     @Override
     public String toCSV(){
-        return id + "," + patientId + "," + doctorId + "," + serviceId + ","
-                + DateTimeUtil.format(start, Constants.DATE_TIME_PATTERN) + ","
-                + DateTimeUtil.format(end, Constants.DATE_TIME_PATTERN) + ","
-                + status.name();
+        // đi qua getter để các view (vd. lưu trữ dạng cột) dùng chung được
+        return getId() + "," + getPatientId() + "," + getDoctorId() + "," + getServiceId() + ","
+                + DateTimeUtil.format(getStart(), Constants.DATE_TIME_PATTERN) + ","
+                + DateTimeUtil.format(getEnd(), Constants.DATE_TIME_PATTERN) + ","
+                + getStatus().name();
     }
     public static Appointment fromCSV(String line){
-        String[] p = line.split(",", -1);
-        UUID id = UUID.fromString(p[0]);
-        UUID pid = UUID.fromString(p[1]);
-        UUID did = UUID.fromString(p[2]);
-        UUID sid = UUID.fromString(p[3]);
-        LocalDateTime st = DateTimeUtil.parse(p[4], Constants.DATE_TIME_PATTERN);
-        LocalDateTime en = DateTimeUtil.parse(p[5], Constants.DATE_TIME_PATTERN);
-        AppointmentStatus status = AppointmentStatus.valueOf(p[6]);
+        CsvLine c = new CsvLine(line);
+        UUID id = c.nextUuid();
+        UUID pid = c.nextUuid();
+        UUID did = c.nextUuid();
+        UUID sid = c.nextUuid();
+        LocalDateTime st = c.nextDateTime();
+        LocalDateTime en = c.nextDateTime();
+        AppointmentStatus status = c.nextEnum(AppointmentStatus.class);
         return new Appointment(id, pid, did, sid, st, en, status);
     }
 }
@@ -53,7 +54,7 @@ class Invoice implements Persistable {
     private UUID appointmentId;
     private double amount;
     private LocalDateTime createdAt;
-    private boolean paid;
+    private volatile boolean paid;
 
     public Invoice(){}
     public Invoice(UUID id, UUID appointmentId, double amount, LocalDateTime createdAt, boolean paid){
@@ -71,15 +72,12 @@ class Invoice implements Persistable {
 
     @Override
     public String toCSV(){
-        return id + "," + appointmentId + "," + amount + ","
-                + DateTimeUtil.format(createdAt, Constants.DATE_TIME_PATTERN) + "," + paid;
+        return getId() + "," + getAppointmentId() + "," + getAmount() + ","
+                + DateTimeUtil.format(getCreatedAt(), Constants.DATE_TIME_PATTERN) + "," + isPaid();
     }
     public static Invoice fromCSV(String line){
-        String[] p = line.split(",", -1);
-        return new Invoice(UUID.fromString(p[0]), UUID.fromString(p[1]),
-                Double.parseDouble(p[2]),
-                DateTimeUtil.parse(p[3], Constants.DATE_TIME_PATTERN),
-                Boolean.parseBoolean(p[4]));
+        CsvLine c = new CsvLine(line);
+        return new Invoice(c.nextUuid(), c.nextUuid(), c.nextDouble(), c.nextDateTime(), c.nextBoolean());
     }
 }
 
@@ -97,11 +95,80 @@ class ServiceNotFoundException extends RuntimeException {
     public ServiceNotFoundException(String message){ super(message); }
 }
 
+// ===== đặt lịch hàng loạt =====
+/** 1 yêu cầu đặt lịch trong lô (vd. danh sách chuyển tuyến từ đối tác) */
+final class BookingRequest {
+    private final UUID patientId;
+    private final UUID doctorId;
+    private final UUID serviceId;
+    private final LocalDateTime start;
+
+    BookingRequest(UUID patientId, UUID doctorId, UUID serviceId, LocalDateTime start) {
+        this.patientId = patientId; this.doctorId = doctorId; this.serviceId = serviceId; this.start = start;
+    }
+    public UUID getPatientId(){ return patientId; }
+    public UUID getDoctorId(){ return doctorId; }
+    public UUID getServiceId(){ return serviceId; }
+    public LocalDateTime getStart(){ return start; }
+}
+
+enum BookingStatus {
+    BOOKED,
+    CONFLICT,   // trùng lịch đã có hoặc trùng yêu cầu khác trong cùng lô
+    NOT_FOUND,  // bệnh nhân/bác sĩ/dịch vụ không tồn tại
+    REJECTED    // hợp lệ nhưng bị hủy theo vì chế độ atomic và lô có yêu cầu lỗi
+}
+
+/** Kết quả cho từng yêu cầu, cùng thứ tự với danh sách yêu cầu */
+final class BookingResult {
+    private final BookingRequest request;
+    private final BookingStatus status;
+    private final Appointment appointment; // null nếu không đặt được
+    private final String message;
+
+    BookingResult(BookingRequest request, BookingStatus status, Appointment appointment, String message) {
+        this.request = request; this.status = status; this.appointment = appointment; this.message = message;
+    }
+    public BookingRequest getRequest(){ return request; }
+    public BookingStatus getStatus(){ return status; }
+    public Appointment getAppointment(){ return appointment; }
+    public String getMessage(){ return message; }
+    public boolean isBooked(){ return status == BookingStatus.BOOKED; }
+}
+
+/** Khoảng trống đủ dài cho 1 dịch vụ trong lịch của bác sĩ */
+final class FreeSlot {
+    private final UUID doctorId;
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+
+    FreeSlot(UUID doctorId, LocalDateTime start, LocalDateTime end) {
+        this.doctorId = doctorId; this.start = start; this.end = end;
+    }
+    public UUID getDoctorId(){ return doctorId; }
+    public LocalDateTime getStart(){ return start; }
+    public LocalDateTime getEnd(){ return end; }
+}
+
 // ===== interface lịch hẹn =====
 interface Schedulable {
     Appointment book(UUID patientId, UUID doctorId, UUID serviceId, LocalDateTime start);
+    /**
+     * Đặt nhiều lịch 1 lượt: nhóm theo bác sĩ, sắp theo giờ bắt đầu và dò trùng trong 1 lần quét
+     * (với lịch đã có và với nhau). atomic = true: có 1 yêu cầu lỗi thì không đặt yêu cầu nào.
+     */
+    List<BookingResult> bookAll(List<BookingRequest> requests, boolean atomic);
+    /**
+     * Các khoảng trống sớm nhất (trong giờ làm việc, thuộc [from, to)) vừa với thời lượng dịch vụ, tối đa limit khung.
+     * Thiếu bác sĩ/dịch vụ/from/to hoặc limit âm: IllegalArgumentException.
+     */
+    List<FreeSlot> findFreeSlots(UUID doctorId, MedicalService service, LocalDateTime from, LocalDateTime to, int limit);
+    /** Như trên nhưng tìm trên mọi bác sĩ của khoa, gộp theo giờ bắt đầu */
+    List<FreeSlot> findFreeSlots(Department department, MedicalService service, LocalDateTime from, LocalDateTime to, int limit);
     void cancel(UUID appointmentId);
     void complete(UUID appointmentId);
     List<Appointment> listAppointmentsByDoctor(UUID doctorId);
+    /** Lịch của bác sĩ bắt đầu trong [from, to), kể cả các tháng đã lưu trữ (nạp khi cần) */
+    List<Appointment> listAppointmentsByDoctor(UUID doctorId, LocalDateTime from, LocalDateTime to);
     boolean isAvailable(UUID doctorId, LocalDateTime start, LocalDateTime end);
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Sinh bộ dữ liệu lớn (hàng triệu lịch hẹn) để thử tải, ghi thẳng ra các file CSV.
+ *
+ * Mỗi bác sĩ được sinh độc lập, song song: lịch được xếp nối tiếp vào thời gian trống của
+ * bác sĩ (con trỏ chỉ chạy tới, trong giờ làm việc, nghỉ Chủ nhật) nên không bao giờ trùng
+ * và không cần dò lại. Mỗi bác sĩ có SplittableRandom riêng suy ra từ seed, nên cùng seed
+ * (và cùng --today) luôn cho cùng các file, kể cả UUID. Muốn có snapshot nhị phân thì chạy
+ * "java BinarySnapshot csv2bin" trong thư mục kết quả.
+ *
+ *   java SyntheticDataGenerator --patients 100000 --doctors 2000 --appointments 5000000 --seed 42 --out data
+ */
+final class SyntheticDataGenerator {
+
+    // tỉ trọng khoa (GENERAL, CARDIOLOGY, NEUROLOGY, ORTHOPEDICS, PEDIATRICS, DERMATOLOGY)
+    static final double[] DEPARTMENT_WEIGHTS = {0.35, 0.15, 0.10, 0.15, 0.15, 0.10};
+    // tỉ trọng loại dịch vụ khi đặt lịch: khám / xét nghiệm / phẫu thuật
+    static final double[] SERVICE_MIX = {0.70, 0.22, 0.08};
+    static final double CANCEL_RATE = 0.12;          // lịch đã qua bị hủy
+    static final double PAID_RATE_COMPLETED = 0.95;  // lịch đã khám xong đã thanh toán
+    static final double PREPAID_RATE = 0.10;         // lịch sắp tới trả trước
+    static final double HISTORY_SHARE = 0.8;         // phần lịch nằm trong quá khứ
+    static final int DOCTORS_PER_BLOCK = 64;          // số bác sĩ sinh song song trước khi ghi ra file
+
+    private final int patientCount;
+    private final int doctorCount;
+    private final long appointmentCount;
+    private final long seed;
+    private final LocalDate today;
+
+    SyntheticDataGenerator(int patientCount, int doctorCount, long appointmentCount, long seed, LocalDate today) {
+        if (patientCount <= 0 || doctorCount <= 0) throw new IllegalArgumentException("Cần ít nhất 1 bệnh nhân và 1 bác sĩ");
+        this.patientCount = patientCount;
+        this.doctorCount = doctorCount;
+        this.appointmentCount = appointmentCount;
+        this.seed = seed;
+        this.today = today;
+    }
+
+    /** Ghi patients/doctors/services/appointments/invoices.csv vào thư mục dir */
+    void writeCsv(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Patient> patients = patients();
+        List<Doctor> doctors = doctors();
+        List<MedicalService> services = services();
+        CsvStorage.save(dir.resolve(Constants.PATIENTS_CSV).toString(), patients);
+        CsvStorage.save(dir.resolve(Constants.DOCTORS_CSV).toString(), doctors);
+        CsvStorage.save(dir.resolve(Constants.SERVICES_CSV).toString(), services);
+
+        MedicalService[][] byType = {
+                services.stream().filter(s -> s instanceof ExaminationService).toArray(MedicalService[]::new),
+                services.stream().filter(s -> s instanceof TestService).toArray(MedicalService[]::new),
+                services.stream().filter(s -> s instanceof SurgeryService).toArray(MedicalService[]::new)};
+        UUID[] patientIds = patients.stream().map(Patient::getId).toArray(UUID[]::new);
+
+        try (Writer appts = Files.newBufferedWriter(dir.resolve(Constants.APPOINTMENTS_CSV), StandardCharsets.UTF_8);
+             Writer invs = Files.newBufferedWriter(dir.resolve(Constants.INVOICES_CSV), StandardCharsets.UTF_8)) {
+            for (int from = 0; from < doctorCount; from += DOCTORS_PER_BLOCK) {
+                int to = Math.min(doctorCount, from + DOCTORS_PER_BLOCK);
+                // sinh song song theo bác sĩ, ghi tuần tự theo thứ tự bác sĩ để file luôn giống nhau
+                String[][] rows = IntStream.range(from, to).parallel()
+                        .mapToObj(d -> doctorRows(d, doctors.get(d).getId(), patientIds, byType))
+                        .toArray(String[][]::new);
+                for (String[] r : rows) {
+                    appts.write(r[0]);
+                    invs.write(r[1]);
+                }
+            }
+        }
+    }
+
+    /** [dòng appointments, dòng invoices] của 1 bác sĩ */
+    private String[] doctorRows(int doctorIndex, UUID doctorId, UUID[] patientIds, MedicalService[][] byType) {
+        long n = appointmentCount / doctorCount + (doctorIndex < appointmentCount % doctorCount ? 1 : 0);
+        SplittableRandom rnd = new SplittableRandom(mix(seed, doctorIndex + 1));
+        StringBuilder appts = new StringBuilder((int) Math.min(Integer.MAX_VALUE / 4, n * 192));
+        StringBuilder invs = new StringBuilder((int) Math.min(Integer.MAX_VALUE / 4, n * 100));
+
+        // ~16 lịch/ngày làm việc; HISTORY_SHARE số lịch nằm trước hôm nay
+        long workDays = Math.max(1, (long) Math.ceil(n / 16.0));
+        LocalDate firstDay = today.minusDays((long) (workDays * HISTORY_SHARE * 7 / 6));
+        // ngày bắt đầu cũng phải là ngày làm việc, như khi con trỏ sang ngày mới trong vòng lặp
+        if (!DateTimeUtil.isWorkingDay(firstDay)) firstDay = firstDay.plusDays(1);
+        LocalDateTime cursor = firstDay.atTime(Constants.WORK_START_HOUR, 0);
+        LocalDateTime now = today.atStartOfDay();
+
+        for (long i = 0; i < n; i++) {
+            MedicalService s = pick(byType[weighted(rnd, SERVICE_MIX)], rnd);
+            LocalDateTime start = cursor.plusMinutes(5L * rnd.nextInt(4));
+            if (start.plusMinutes(s.getDurationMinutes()).isAfter(start.toLocalDate().atTime(Constants.WORK_END_HOUR, 0))) {
+                LocalDate next = start.toLocalDate().plusDays(1);
+                if (!DateTimeUtil.isWorkingDay(next)) next = next.plusDays(1);
+                start = next.atTime(Constants.WORK_START_HOUR, 0);
+            }
+            LocalDateTime end = start.plusMinutes(s.getDurationMinutes());
+            cursor = end;
+
+            boolean past = start.isBefore(now);
+            AppointmentStatus status = !past ? AppointmentStatus.SCHEDULED
+                    : rnd.nextDouble() < CANCEL_RATE ? AppointmentStatus.CANCELLED : AppointmentStatus.COMPLETED;
+            boolean paid = status == AppointmentStatus.COMPLETED ? rnd.nextDouble() < PAID_RATE_COMPLETED
+                    : status == AppointmentStatus.SCHEDULED && rnd.nextDouble() < PREPAID_RATE;
+
+            Appointment a = new Appointment(uuid(rnd), patientIds[rnd.nextInt(patientIds.length)], doctorId, s.getId(),
+                    start, end, status);
+            // hóa đơn lập lúc đặt lịch, 0-21 ngày trước giờ khám
+            Invoice inv = new Invoice(uuid(rnd), a.getId(), s.getCost(), start.minusDays(rnd.nextInt(22)).minusMinutes(rnd.nextInt(600)), paid);
+            appts.append(a.toCSV()).append('\n');
+            invs.append(inv.toCSV()).append('\n');
+        }
+        return new String[]{appts.toString(), invs.toString()};
+    }
+
+    List<Patient> patients() {
+        SplittableRandom rnd = new SplittableRandom(mix(seed, -1));
+        String[] last = {"Nguyễn", "Trần", "Lê", "Phạm", "Hoàng", "Huỳnh", "Phan", "Vũ", "Võ", "Đặng", "Bùi", "Đỗ"};
+        String[] middle = {"Văn", "Thị", "Hữu", "Minh", "Thu", "Ngọc", "Quốc", "Thanh"};
+        String[] first = {"An", "Bình", "Chi", "Dũng", "Giang", "Hà", "Hùng", "Lan", "Linh", "Mai", "Nam", "Phương", "Quân", "Sơn", "Trang", "Tuấn"};
+        List<Patient> list = new ArrayList<>(patientCount);
+        for (int i = 1; i <= patientCount; i++) {
+            String name = pick(last, rnd) + " " + pick(middle, rnd) + " " + pick(first, rnd);
+            String phone = String.format("09%08d", rnd.nextInt(100_000_000));
+            // ~80% có BHYT
+            String bhyt = rnd.nextDouble() < 0.8 ? String.format("BHYT-%010d", i) : "";
+            list.add(new Patient(uuid(rnd), name, phone, "Số " + (1 + rnd.nextInt(300)) + ", Phường " + (1 + rnd.nextInt(20)), bhyt));
+        }
+        return list;
+    }
+
+    List<Doctor> doctors() {
+        SplittableRandom rnd = new SplittableRandom(mix(seed, -2));
+        Department[] deps = Department.values();
+        List<Doctor> list = new ArrayList<>(doctorCount);
+        for (int i = 1; i <= doctorCount; i++) {
+            list.add(new Doctor(uuid(rnd), "BS " + i, String.format("098%07d", i), "Phòng " + (100 + i % 400),
+                    deps[weighted(rnd, DEPARTMENT_WEIGHTS)]));
+        }
+        return list;
+    }
+
+    List<MedicalService> services() {
+        SplittableRandom rnd = new SplittableRandom(mix(seed, -3));
+        List<MedicalService> list = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) list.add(new ExaminationService(uuid(rnd), "Khám " + i, 100_000 + 25_000 * rnd.nextInt(8), 15 + 5 * rnd.nextInt(3)));
+        for (int i = 1; i <= 10; i++) list.add(new TestService(uuid(rnd), "Xét nghiệm " + i, 80_000 + 40_000 * rnd.nextInt(10), 10 + 5 * rnd.nextInt(3)));
+        for (int i = 1; i <= 5; i++) list.add(new SurgeryService(uuid(rnd), "Phẫu thuật " + i, 3_000_000 + 1_000_000 * rnd.nextInt(8), 60 + 30 * rnd.nextInt(4)));
+        return list;
+    }
+
+    // ===== helpers =====
+    private static long mix(long seed, long salt) {
+        long z = seed + salt * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** UUID phiên bản 4 nhưng sinh tất định từ rnd */
+    private static UUID uuid(SplittableRandom rnd) {
+        long msb = (rnd.nextLong() & ~0xF000L) | 0x4000L;
+        long lsb = (rnd.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    private static int weighted(SplittableRandom rnd, double[] weights) {
+        double x = rnd.nextDouble();
+        for (int i = 0; i < weights.length - 1; i++) {
+            x -= weights[i];
+            if (x < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    private static <T> T pick(T[] items, SplittableRandom rnd) { return items[rnd.nextInt(items.length)]; }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        SyntheticDataGenerator gen = new SyntheticDataGenerator(
+                Integer.parseInt(opt.getOrDefault("patients", "10000")),
+                Integer.parseInt(opt.getOrDefault("doctors", "500")),
+                Long.parseLong(opt.getOrDefault("appointments", "1000000")),
+                Long.parseLong(opt.getOrDefault("seed", "42")),
+                opt.containsKey("today") ? LocalDate.parse(opt.get("today")) : LocalDate.now());
+        Path out = Paths.get(opt.getOrDefault("out", "."));
+        long t0 = System.nanoTime();
+        gen.writeCsv(out);
+        System.out.printf(">> Đã sinh dữ liệu vào %s trong %d ms%n", out.toAbsolutePath(), (System.nanoTime() - t0) / 1_000_000);
+    }
+}
@@ -0,0 +1,199 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Sổ cái hóa đơn: tra hóa đơn theo lịch hẹn và 2 tập chưa/đã thanh toán theo ngày tạo, cập nhật cùng
+ * lúc với danh sách hóa đơn trong AppointmentManager. Mỗi tập chia theo ngày (skip list theo epochDay,
+ * trong ngày là map theo id): thanh toán chỉ đụng 1 ngày nên rẻ như tra map, còn thứ tự theo giờ tạo
+ * chỉ dựng khi duyệt, mỗi lần 1 ngày. Dùng cấu trúc đồng thời nên đọc không cần khóa; duyệt là nhất
+ * quán yếu (thấy hoặc chưa thấy thay đổi đang diễn ra).
+ */
+final class InvoiceLedger {
+    static final Comparator<Invoice> BY_CREATED = Comparator.comparing(Invoice::getCreatedAt).thenComparing(Invoice::getId);
+
+    /** Tập hóa đơn gom theo ngày tạo */
+    private static final class ByDay {
+        private final ConcurrentSkipListMap<Long, Map<UUID, Invoice>> days = new ConcurrentSkipListMap<>();
+        // size() của skip list phải duyệt cả tập nên tự đếm
+        private final AtomicInteger size = new AtomicInteger();
+
+        void add(Invoice inv) {
+            if (days.computeIfAbsent(day(inv), k -> new ConcurrentHashMap<>()).put(inv.getId(), inv) == null) size.incrementAndGet();
+        }
+
+        void remove(Invoice inv) {
+            Map<UUID, Invoice> d = days.get(day(inv));
+            if (d != null && d.remove(inv.getId()) != null) size.decrementAndGet();
+        }
+
+        // cũ trước; mỗi ngày được chép ra rồi sắp theo giờ tạo khi duyệt tới
+        Stream<Invoice> stream(NavigableMap<Long, Map<UUID, Invoice>> range) {
+            return range.values().stream().flatMap(d -> {
+                List<Invoice> list = new ArrayList<>(d.values());
+                list.sort(BY_CREATED);
+                return list.stream();
+            });
+        }
+
+        private static long day(Invoice inv) { return inv.getCreatedAt().toLocalDate().toEpochDay(); }
+    }
+
+    private final Map<UUID, Invoice> byAppointment;
+    private final ByDay unpaid = new ByDay(), paid = new ByDay();
+
+    InvoiceLedger(List<Invoice> invoices) {
+        this.byAppointment = new ConcurrentHashMap<>(Math.max(16, invoices.size() * 4 / 3 + 1));
+        for (Invoice inv : invoices) add(inv);
+    }
+
+    void add(Invoice inv) {
+        byAppointment.put(inv.getAppointmentId(), inv);
+        (inv.isPaid() ? paid : unpaid).add(inv);
+    }
+
+    /** Chuyển hóa đơn vừa thanh toán từ tập chưa sang tập đã thanh toán */
+    void onPaid(Invoice inv) {
+        unpaid.remove(inv);
+        paid.add(inv);
+    }
+
+    void remove(Invoice inv) {
+        byAppointment.computeIfPresent(inv.getAppointmentId(), (k, v) -> v.getId().equals(inv.getId()) ? null : v);
+        unpaid.remove(inv);
+        paid.remove(inv);
+    }
+
+    /** null nếu lịch hẹn chưa có hóa đơn (hoặc đã lưu trữ) */
+    Invoice forAppointment(UUID appointmentId) { return byAppointment.get(appointmentId); }
+
+    /** Hóa đơn chưa thanh toán, cũ trước */
+    Stream<Invoice> unpaid() { return unpaid.stream(unpaid.days); }
+
+    /** Hóa đơn đã thanh toán, cũ trước */
+    Stream<Invoice> paid() { return paid.stream(paid.days); }
+
+    /** Hóa đơn chưa thanh toán tạo trước thời điểm t, cũ trước */
+    Stream<Invoice> unpaidCreatedBefore(LocalDateTime t) {
+        return unpaid.stream(unpaid.days.headMap(t.toLocalDate().toEpochDay(), true)).filter(inv -> inv.getCreatedAt().isBefore(t));
+    }
+
+    int unpaidCount() { return unpaid.size.get(); }
+    int paidCount() { return paid.size.get(); }
+}
+
+/** Nhóm tuổi nợ theo số ngày kể từ ngày tạo hóa đơn */
+enum AgeingBucket {
+    DAYS_0_30("0-30"), DAYS_31_60("31-60"), DAYS_61_90("61-90"), OVER_90(">90");
+
+    final String label;
+    AgeingBucket(String label) { this.label = label; }
+
+    static AgeingBucket of(long ageDays) {
+        if (ageDays <= 30) return DAYS_0_30;
+        if (ageDays <= 60) return DAYS_31_60;
+        if (ageDays <= 90) return DAYS_61_90;
+        return OVER_90;
+    }
+}
+
+/** Tổng hợp công nợ theo nhóm tuổi tại ngày asOf */
+final class AgeingReport {
+    private final LocalDate asOf;
+    private final long[] counts = new long[AgeingBucket.values().length];
+    private final double[] amounts = new double[AgeingBucket.values().length];
+
+    AgeingReport(LocalDate asOf) { this.asOf = asOf; }
+
+    void add(AgeingBucket b, double amount) {
+        counts[b.ordinal()]++;
+        amounts[b.ordinal()] += amount;
+    }
+
+    /** Cộng số liệu của báo cáo khác cùng ngày asOf (vd. từng cơ sở khi phân mảnh) */
+    void merge(AgeingReport other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            amounts[i] += other.amounts[i];
+        }
+    }
+
+    LocalDate getAsOf() { return asOf; }
+    long count(AgeingBucket b) { return counts[b.ordinal()]; }
+    double amount(AgeingBucket b) { return amounts[b.ordinal()]; }
+    long totalCount() { return Arrays.stream(counts).sum(); }
+    double totalAmount() { return Arrays.stream(amounts).sum(); }
+}
+
+/**
+ * Báo cáo tuổi nợ: duyệt tập chưa thanh toán của sổ cái theo ngày tạo (nợ lâu nhất trước),
+ * bỏ hóa đơn của lịch đã hủy và hóa đơn tạo sau asOf. Xuất file thì từng dòng được ghi ngay khi
+ * duyệt tới (CsvStorage.saveLines nhận Iterable lười), không dựng danh sách kết quả trong bộ nhớ.
+ */
+final class ReceivablesAgeing {
+    static final String HEADER = "invoiceId,appointmentId,patientId,createdAt,amount,ageDays,bucket";
+
+    private final InvoiceLedger ledger;
+    private final Function<UUID, Appointment> appointmentOf;
+
+    ReceivablesAgeing(InvoiceLedger ledger, Function<UUID, Appointment> appointmentOf) {
+        this.ledger = ledger;
+        this.appointmentOf = appointmentOf;
+    }
+
+    /** Chỉ tính tổng theo nhóm */
+    AgeingReport summarize(LocalDate asOf) {
+        AgeingReport report = new AgeingReport(asOf);
+        rows(asOf, report).forEach(row -> {});
+        return report;
+    }
+
+    /** Ghi từng dòng ra file CSV (có dòng tiêu đề), trả về tổng theo nhóm */
+    AgeingReport export(String path, LocalDate asOf) {
+        AgeingReport report = new AgeingReport(asOf);
+        CsvStorage.saveLines(path, Stream.concat(Stream.of(HEADER), rows(asOf, report))::iterator);
+        return report;
+    }
+
+    // stream lười: mỗi dòng chỉ được tạo (và cộng vào report) khi bên ghi kéo tới
+    private Stream<String> rows(LocalDate asOf, AgeingReport report) {
+        return ledger.unpaidCreatedBefore(asOf.plusDays(1).atStartOfDay()).map(inv -> {
+            if (inv.isPaid()) return null; // vừa thanh toán trong lúc duyệt
+            Appointment a = appointmentOf.apply(inv.getAppointmentId());
+            if (a != null && a.getStatus() == AppointmentStatus.CANCELLED) return null;
+            long age = Math.max(0, ChronoUnit.DAYS.between(inv.getCreatedAt().toLocalDate(), asOf));
+            AgeingBucket b = AgeingBucket.of(age);
+            report.add(b, inv.getAmount());
+            return inv.getId() + "," + inv.getAppointmentId() + "," + (a == null ? "" : a.getPatientId()) + ","
+                    + DateTimeUtil.format(inv.getCreatedAt(), Constants.DATE_TIME_PATTERN) + "," + inv.getAmount() + ","
+                    + age + "," + b.label;
+        }).filter(Objects::nonNull);
+    }
+}
+
+/** Kết quả thanh toán hàng loạt */
+final class PaymentBatchResult {
+    static final int MAX_SAMPLES = 100;
+
+    private int paid, alreadyPaid, unmatched;
+    private final List<String> unmatchedSamples = new ArrayList<>();
+
+    void paid() { paid++; }
+    void alreadyPaid() { alreadyPaid++; }
+    /** Dòng/mã không khớp hóa đơn nào; chỉ giữ MAX_SAMPLES mẫu đầu để báo lỗi */
+    void unmatched(String entry) {
+        unmatched++;
+        if (unmatchedSamples.size() < MAX_SAMPLES) unmatchedSamples.add(entry);
+    }
+
+    int getPaid() { return paid; }
+    int getAlreadyPaid() { return alreadyPaid; }
+    int getUnmatched() { return unmatched; }
+    List<String> getUnmatchedSamples() { return Collections.unmodifiableList(unmatchedSamples); }
+}
@@ -0,0 +1,202 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/** Sự kiện thay đổi lịch/hóa đơn/bệnh nhân phát ra từ AppointmentManager */
+abstract class SchedulingEvent {
+    private final long timestamp = System.currentTimeMillis();
+
+    /** Thời điểm phát (epoch ms) */
+    long getTimestamp() { return timestamp; }
+}
+
+final class AppointmentBooked extends SchedulingEvent {
+    final Appointment appointment;
+    AppointmentBooked(Appointment appointment) { this.appointment = appointment; }
+}
+
+final class AppointmentCancelled extends SchedulingEvent {
+    final Appointment appointment;
+    final AppointmentStatus previous; // trạng thái ngay trước khi hủy
+    AppointmentCancelled(Appointment appointment, AppointmentStatus previous) { this.appointment = appointment; this.previous = previous; }
+}
+
+final class AppointmentCompleted extends SchedulingEvent {
+    final Appointment appointment;
+    final AppointmentStatus previous;
+    AppointmentCompleted(Appointment appointment, AppointmentStatus previous) { this.appointment = appointment; this.previous = previous; }
+}
+
+final class InvoiceCreated extends SchedulingEvent {
+    final Invoice invoice;
+    final Appointment appointment;
+    InvoiceCreated(Invoice invoice, Appointment appointment) { this.invoice = invoice; this.appointment = appointment; }
+}
+
+final class InvoicePaid extends SchedulingEvent {
+    final Invoice invoice;
+    InvoicePaid(Invoice invoice) { this.invoice = invoice; }
+}
+
+final class PatientAdded extends SchedulingEvent {
+    final Patient patient;
+    PatientAdded(Patient patient) { this.patient = patient; }
+}
+
+/** Nhận sự kiện theo lô, luôn trên cùng 1 luồng riêng của subscriber, đúng thứ tự phát */
+interface EventSubscriber {
+    void onEvents(List<SchedulingEvent> batch);
+}
+
+/**
+ * Hàng đợi vòng có giới hạn, nhiều luồng ghi - 1 luồng đọc, không khóa: mỗi ô có số thứ tự riêng
+ * (ô trống khi seq == vị trí ghi, có dữ liệu khi seq == vị trí + 1), người ghi giành ô bằng CAS trên tail.
+ * Đầy thì offer trả về false ngay chứ không chờ.
+ */
+final class EventRing {
+    private final int mask;
+    private final AtomicReferenceArray<SchedulingEvent> slots;
+    private final AtomicLongArray seqs;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // chỉ luồng đọc dùng
+
+    EventRing(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = cap - 1;
+        this.slots = new AtomicReferenceArray<>(cap);
+        this.seqs = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) seqs.set(i, i);
+    }
+
+    int capacity() { return mask + 1; }
+
+    boolean offer(SchedulingEvent e) {
+        while (true) {
+            long t = tail.get();
+            int i = (int) (t & mask);
+            long s = seqs.get(i);
+            if (s < t) return false; // ô còn dữ liệu của vòng trước: đầy
+            if (s == t && tail.compareAndSet(t, t + 1)) {
+                slots.lazySet(i, e);
+                seqs.set(i, t + 1);
+                return true;
+            }
+            // luồng ghi khác vừa giành ô này: đọc lại tail
+        }
+    }
+
+    /** Lấy tối đa max phần tử đã sẵn sàng vào out (chỉ luồng đọc gọi), trả về số đã lấy */
+    int drain(List<SchedulingEvent> out, int max) {
+        int n = 0;
+        while (n < max) {
+            int i = (int) (head & mask);
+            if (seqs.get(i) != head + 1) break;
+            out.add(slots.get(i));
+            slots.lazySet(i, null);
+            seqs.set(i, head + mask + 1);
+            head++;
+            n++;
+        }
+        return n;
+    }
+}
+
+/**
+ * Bus sự kiện trong tiến trình: mỗi subscriber có hàng đợi vòng riêng và 1 luồng tiêu thụ lấy theo
+ * lô. Phát sự kiện chỉ là vài CAS, không khóa, không chờ: subscriber chậm làm đầy hàng đợi của chính
+ * nó thì sự kiện mới bị bỏ (đếm vào dropped) thay vì làm chậm đặt lịch. Subscriber cần dữ liệu đầy đủ
+ * thì theo dõi dropped() và dựng lại từ AppointmentManager khi có mất mát.
+ */
+final class EventBus {
+    static final int DEFAULT_CAPACITY = 8192;
+    static final int MAX_BATCH = 512;
+    // luồng tiêu thụ lấy chưa đầy lô thì ngủ PARK_NS rồi mới lấy tiếp, luồng ghi không bao giờ phải đánh
+    // thức nó: unpark mỗi sự kiện hay thức dậy quá dày đều cướp CPU của luồng đặt lịch. Hàng đợi vòng
+    // phải chứa đủ sự kiện của 1 khoảng ngủ.
+    static final long PARK_NS = 1_000_000;
+
+    /** Đăng ký của 1 subscriber */
+    static final class Subscription implements AutoCloseable {
+        final String name;
+        private final EventSubscriber subscriber;
+        private final EventRing ring;
+        private final Thread consumer;
+        private final LongAdder dropped;
+        private final LongAdder delivered = new LongAdder();
+        private final EventBus bus;
+        private volatile boolean closed;
+
+        private Subscription(EventBus bus, String name, EventSubscriber subscriber, int capacity) {
+            this.bus = bus;
+            this.name = name;
+            this.subscriber = subscriber;
+            this.ring = new EventRing(capacity);
+            this.dropped = Metrics.counter("events.dropped." + name);
+            this.consumer = new Thread(this::consume, "events-" + name);
+            consumer.setDaemon(true);
+        }
+
+        private void offer(SchedulingEvent e) {
+            if (!ring.offer(e)) dropped.increment();
+        }
+
+        private void consume() {
+            List<SchedulingEvent> batch = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                int n = ring.drain(batch, MAX_BATCH);
+                if (n > 0) {
+                    try {
+                        subscriber.onEvents(batch);
+                    } catch (RuntimeException ex) {
+                        System.err.println("!! Lỗi subscriber " + name + ": " + ex);
+                    }
+                    delivered.add(n);
+                    batch.clear();
+                }
+                if (n < MAX_BATCH) {
+                    if (n == 0 && closed) return;
+                    LockSupport.parkNanos(this, PARK_NS);
+                }
+            }
+        }
+
+        long dropped() { return dropped.sum(); }
+        long delivered() { return delivered.sum(); }
+
+        /** Ngừng nhận sự kiện mới, giao nốt phần đã nhận rồi dừng luồng tiêu thụ */
+        @Override
+        public void close() {
+            if (closed) return;
+            bus.subscriptions.remove(this);
+            closed = true;
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    Subscription subscribe(String name, EventSubscriber subscriber) { return subscribe(name, subscriber, DEFAULT_CAPACITY); }
+
+    Subscription subscribe(String name, EventSubscriber subscriber, int capacity) {
+        Subscription s = new Subscription(this, name, subscriber, capacity);
+        subscriptions.add(s);
+        s.consumer.start();
+        return s;
+    }
+
+    boolean hasSubscribers() { return !subscriptions.isEmpty(); }
+
+    void publish(SchedulingEvent e) {
+        for (Subscription s : subscriptions) s.offer(e);
+    }
+}
@@ -0,0 +1,323 @@
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/** 1 trang kết quả tìm kiếm */
+final class Page<T> {
+    private final List<T> items;
+    private final int page;
+    private final int pageSize;
+    private final boolean hasMore;
+
+    Page(List<T> items, int page, int pageSize, boolean hasMore) {
+        this.items = items; this.page = page; this.pageSize = pageSize; this.hasMore = hasMore;
+    }
+    public List<T> getItems(){ return items; }
+    public int getPage(){ return page; }
+    public int getPageSize(){ return pageSize; }
+    public boolean hasMore(){ return hasMore; }
+}
+
+/**
+ * Chỉ mục tìm bệnh nhân trong bộ nhớ:
+ * - tên đã chuẩn hóa (bỏ dấu, chữ thường) trong skip list có thứ tự, mỗi bệnh nhân có 1 khóa cho
+ *   từng hậu tố theo từ của tên ("nguyen van an", "van an", "an") nên gõ đầu họ, tên đệm hay tên
+ *   đều tìm được theo tiền tố;
+ * - bảng băm chính xác theo SĐT (chỉ giữ chữ số) và theo mã BHYT;
+ * - tìm gần đúng top-k: chấm điểm trên các tên khác nhau (tên tiếng Việt lặp lại rất nhiều nên ít
+ *   hơn hẳn số bệnh nhân), chỉ xét các tên có 1 từ gần với từ hiếm nhất của truy vấn; từ gần chỉ dò
+ *   theo dải tiền tố và theo (độ dài, chữ cái đầu) trong từ điển, không quét cả từ điển.
+ * Đọc không khóa; thêm/sửa khóa ngắn trên chỉ mục.
+ */
+final class PatientSearchIndex {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final char SEP = '\u0001'; // ngăn tên và id trong khóa, nhỏ hơn mọi ký tự của tên
+
+    /** Các bệnh nhân cùng 1 tên đã chuẩn hóa */
+    private static final class NameGroup {
+        final String name;
+        final String[] tokens;
+        final Set<Patient> patients = ConcurrentHashMap.newKeySet();
+        NameGroup(String name) { this.name = name; this.tokens = tokens(name); }
+    }
+
+    /** Các khóa đã đánh chỉ mục của 1 bệnh nhân, để gỡ đúng khi sửa */
+    private static final class Keys {
+        final String name, phone, insurance;
+        Keys(Patient p) { name = normalize(p.getFullName()); phone = digits(p.getPhone()); insurance = insurance(p.getInsuranceNumber()); }
+    }
+
+    private final ConcurrentSkipListMap<String, Patient> byName = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<Patient>> byPhone = new ConcurrentHashMap<>();
+    private final Map<String, Set<Patient>> byInsurance = new ConcurrentHashMap<>();
+    private final Map<String, NameGroup> byFullName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<NameGroup>> byToken = new ConcurrentSkipListMap<>();
+    // từ điển theo độ dài: khóa = (char) độ dài + từ, để lấy dải độ dài bằng subSet
+    private final ConcurrentSkipListSet<String> tokensByLength = new ConcurrentSkipListSet<>();
+    private final Map<UUID, Keys> indexed = new ConcurrentHashMap<>();
+
+    PatientSearchIndex(Collection<Patient> patients) {
+        // nạp lần đầu: sắp các khóa tên rồi chèn theo thứ tự tăng dần, nhanh hơn hẳn chèn lộn xộn
+        List<Map.Entry<String, Patient>> names = new ArrayList<>(patients.size() * 3);
+        for (Patient p : patients) {
+            Keys k = new Keys(p);
+            for (String key : nameKeys(k.name, p.getId())) names.add(Map.entry(key, p));
+            indexOthers(p, k);
+        }
+        names.sort(Map.Entry.comparingByKey());
+        for (Map.Entry<String, Patient> e : names) byName.put(e.getKey(), e.getValue());
+    }
+
+    /** Thêm mới hoặc đánh lại chỉ mục sau khi sửa tên/SĐT/BHYT */
+    synchronized void put(Patient p) {
+        Keys old = indexed.get(p.getId());
+        if (old != null) unindex(p, old);
+        Keys k = new Keys(p);
+        for (String key : nameKeys(k.name, p.getId())) byName.put(key, p);
+        indexOthers(p, k);
+    }
+
+    // tên đầy đủ, SĐT, BHYT
+    private void indexOthers(Patient p, Keys k) {
+        if (!k.name.isEmpty()) {
+            NameGroup g = byFullName.computeIfAbsent(k.name, NameGroup::new);
+            if (g.patients.isEmpty()) for (String t : g.tokens) addToken(t, g);
+            g.patients.add(p);
+        }
+        if (!k.phone.isEmpty()) byPhone.computeIfAbsent(k.phone, t -> ConcurrentHashMap.newKeySet()).add(p);
+        if (!k.insurance.isEmpty()) byInsurance.computeIfAbsent(k.insurance, t -> ConcurrentHashMap.newKeySet()).add(p);
+        indexed.put(p.getId(), k);
+    }
+
+    private void unindex(Patient p, Keys k) {
+        for (String key : nameKeys(k.name, p.getId())) byName.remove(key);
+        NameGroup g = byFullName.get(k.name);
+        if (g != null) {
+            g.patients.remove(p);
+            if (g.patients.isEmpty()) {
+                byFullName.remove(k.name);
+                for (String t : g.tokens) removeToken(t, g);
+            }
+        }
+        removeFrom(byPhone, k.phone, p);
+        removeFrom(byInsurance, k.insurance, p);
+    }
+
+    private void addToken(String t, NameGroup g) {
+        byToken.computeIfAbsent(t, x -> {
+            tokensByLength.add(lengthKey(x));
+            return ConcurrentHashMap.newKeySet();
+        }).add(g);
+    }
+
+    private void removeToken(String t, NameGroup g) {
+        byToken.computeIfPresent(t, (k, set) -> {
+            set.remove(g);
+            if (!set.isEmpty()) return set;
+            tokensByLength.remove(lengthKey(k));
+            return null;
+        });
+    }
+
+    private static String lengthKey(String token) { return (char) token.length() + token; }
+
+    // ===== tra cứu =====
+    /** Tra chính xác theo SĐT (bỏ qua dấu cách, dấu chấm, ...) */
+    List<Patient> findByPhone(String phone) { return List.copyOf(byPhone.getOrDefault(digits(phone), Set.of())); }
+
+    List<Patient> findByInsurance(String insuranceNumber) {
+        return List.copyOf(byInsurance.getOrDefault(insurance(insuranceNumber), Set.of()));
+    }
+
+    /** Tên có 1 hậu tố theo từ bắt đầu bằng prefix (không phân biệt dấu, hoa thường), theo thứ tự tên */
+    Page<Patient> findByNamePrefix(String prefix, int page, int pageSize) {
+        checkPage(page, pageSize);
+        String p = normalize(prefix);
+        Iterator<Patient> it = byName.subMap(p, true, p + '\uffff', false).values().iterator();
+        Set<UUID> seen = new HashSet<>();
+        List<Patient> items = new ArrayList<>(Math.min(pageSize, 64));
+        long skip = (long) page * pageSize;
+        while (it.hasNext()) {
+            Patient x = it.next();
+            if (!seen.add(x.getId())) continue;
+            if (skip > 0) { skip--; continue; }
+            if (items.size() == pageSize) return new Page<>(items, page, pageSize, true);
+            items.add(x);
+        }
+        return new Page<>(items, page, pageSize, false);
+    }
+
+    /**
+     * Tìm chung cho ô tìm kiếm: toàn chữ số -> SĐT, khớp mã BHYT -> BHYT, còn lại tìm tiền tố tên.
+     * Không có kết quả theo tên thì trả về k gợi ý gần đúng ở trang đầu.
+     */
+    Page<Patient> search(String query, int page, int pageSize) {
+        checkPage(page, pageSize);
+        String q = query == null ? "" : query.trim();
+        if (!q.isEmpty() && digits(q).length() == q.replaceAll("[\\s.+-]", "").length()) {
+            return pageOf(findByPhone(q), page, pageSize);
+        }
+        List<Patient> ins = findByInsurance(q);
+        if (!ins.isEmpty()) return pageOf(ins, page, pageSize);
+        Page<Patient> byPrefix = findByNamePrefix(q, page, pageSize);
+        if (!byPrefix.getItems().isEmpty() || page > 0) return byPrefix;
+        return new Page<>(fuzzy(q, pageSize), 0, pageSize, false);
+    }
+
+    /**
+     * k bệnh nhân có tên gần nhất với truy vấn: mỗi từ của truy vấn được so với từ gần nhất trong
+     * tên (sai tối đa 1-2 ký tự tùy độ dài; từ cuối được phép là tiền tố), điểm = tổng độ giống.
+     */
+    List<Patient> fuzzy(String query, int k) {
+        String[] q = tokens(normalize(query));
+        if (q.length == 0 || k <= 0) return List.of();
+
+        // ứng viên: các tên chứa 1 từ gần với từ hiếm nhất của truy vấn (so trên từ điển các từ);
+        // từ không gần với từ nào (gõ sai nặng) thì bỏ qua, để các từ còn lại vẫn tìm được
+        Set<NameGroup> candidates = Set.of();
+        for (int i = 0; i < q.length; i++) {
+            Set<NameGroup> c = new HashSet<>();
+            for (String t : nearTokens(q[i], i == q.length - 1)) c.addAll(byToken.getOrDefault(t, Set.of()));
+            if (!c.isEmpty() && (candidates.isEmpty() || c.size() < candidates.size())) candidates = c;
+        }
+
+        // mỗi tên chấm 1 lần; giữ đủ tên để có ít nhất k bệnh nhân
+        List<Map.Entry<NameGroup, Double>> scored = new ArrayList<>(candidates.size());
+        for (NameGroup g : candidates) {
+            double score = 0;
+            for (int i = 0; i < q.length; i++) {
+                double best = 0;
+                for (String t : g.tokens) best = Math.max(best, similarity(q[i], t, i == q.length - 1));
+                score += best;
+            }
+            scored.add(Map.entry(g, score));
+        }
+        scored.sort(Map.Entry.<NameGroup, Double>comparingByValue().reversed().thenComparing(e -> e.getKey().name));
+        List<Patient> top = new ArrayList<>(k);
+        for (Map.Entry<NameGroup, Double> e : scored) {
+            for (Patient p : e.getKey().patients) {
+                if (top.size() == k) return top;
+                top.add(p);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Các từ trong từ điển gần q: khớp đúng/tiền tố lấy theo dải tiền tố của byToken; sai chính tả chỉ
+     * dò các từ dài q ± maxEdits và bắt đầu bằng q[0] (hoặc q[1] khi gõ thừa chữ đầu), nên gõ sai
+     * chính chữ cái đầu thì không gợi ý, đổi lại không phải so với cả từ điển.
+     */
+    private Set<String> nearTokens(String q, boolean allowPrefix) {
+        Set<String> near = new HashSet<>();
+        if (allowPrefix) near.addAll(byToken.subMap(q, true, q + '\uffff', false).keySet());
+        else if (byToken.containsKey(q)) near.add(q);
+        int max = maxEdits(q.length());
+        if (max == 0) return near;
+        for (int len = q.length() - max; len <= q.length() + max; len++) {
+            for (int i = 0; i < 2; i++) {
+                if (i == 1 && q.charAt(1) == q.charAt(0)) break;
+                String from = (char) len + q.substring(i, i + 1);
+                for (String key : tokensByLength.subSet(from, from + '\uffff')) {
+                    String t = key.substring(1);
+                    if (!near.contains(t) && similarity(q, t, allowPrefix) > 0) near.add(t);
+                }
+            }
+        }
+        return near;
+    }
+
+    // ===== chuẩn hóa =====
+    /** Bỏ dấu tiếng Việt (kể cả đ/Đ), chữ thường, gộp khoảng trắng */
+    static String normalize(String s) {
+        if (s == null) return "";
+        if (isPlainAscii(s)) return s.toLowerCase(Locale.ROOT).trim();
+        String n = MARKS.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("")
+                .replace('đ', 'd').replace('Đ', 'D').toLowerCase(Locale.ROOT);
+        return SPACES.matcher(n).replaceAll(" ").trim();
+    }
+
+    // không dấu, chỉ 1 dấu cách giữa các từ: khỏi chạy Normalizer/regex
+    private static boolean isPlainAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80 || (Character.isWhitespace(c) && (c != ' ' || i == 0 || s.charAt(i - 1) == ' '))) return false;
+        }
+        return true;
+    }
+
+    static String digits(String s) {
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) if (Character.isDigit(s.charAt(i))) sb.append(s.charAt(i));
+        return sb.toString();
+    }
+
+    private static String insurance(String s) { return s == null ? "" : s.trim().toUpperCase(Locale.ROOT); }
+
+    /** 1 khóa cho mỗi hậu tố theo từ của tên, kèm id để không trùng */
+    private static List<String> nameKeys(String normalized, UUID id) {
+        List<String> keys = new ArrayList<>(3);
+        if (normalized.isEmpty()) return keys;
+        for (int i = 0; ; ) {
+            keys.add(normalized.substring(i) + SEP + id);
+            int space = normalized.indexOf(' ', i);
+            if (space < 0) return keys;
+            i = space + 1;
+        }
+    }
+
+    private static String[] tokens(String normalized) { return normalized.isEmpty() ? new String[0] : normalized.split(" "); }
+
+    /** Độ giống 0..1 giữa từ truy vấn và từ trong tên; 0 nếu sai quá nhiều */
+    static double similarity(String q, String t, boolean allowPrefix) {
+        if (q.equals(t)) return 1;
+        if (allowPrefix && t.startsWith(q)) return 0.9;
+        int maxEdits = maxEdits(q.length());
+        if (maxEdits == 0 || Math.abs(q.length() - t.length()) > maxEdits) return 0;
+        int d = editDistance(q, t, maxEdits);
+        return d > maxEdits ? 0 : 1 - (double) d / Math.max(q.length(), t.length());
+    }
+
+    private static int maxEdits(int length) { return length <= 2 ? 0 : length <= 5 ? 1 : 2; }
+
+    /** Levenshtein, dừng sớm khi chắc chắn vượt quá max */
+    private static int editDistance(String a, String b, int max) {
+        int[] prev = new int[b.length() + 1], cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max) return max + 1;
+            int[] tmp = prev; prev = cur; cur = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    private static void checkPage(int page, int pageSize) {
+        if (page < 0) throw new IllegalArgumentException("Số trang không hợp lệ: " + page);
+        if (pageSize <= 0) throw new IllegalArgumentException("Kích thước trang phải > 0: " + pageSize);
+    }
+
+    private static <T> Page<T> pageOf(List<T> all, int page, int pageSize) {
+        int from = (int) Math.min(all.size(), (long) page * pageSize), to = (int) Math.min(all.size(), (long) from + pageSize);
+        return new Page<>(new ArrayList<>(all.subList(from, to)), page, pageSize, to < all.size());
+    }
+
+    private static <T> void removeFrom(Map<String, Set<T>> index, String key, T p) {
+        if (key.isEmpty()) return;
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(p);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -1,3 +1,4 @@
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -19,11 +20,15 @@ public class UngDungQuanLy {
 
     public static void main(String[] args) {
         // Nạp dữ liệu từ CSV nếu có; nếu trống thì seed mẫu cho đủ data theo đề
-        AppointmentManager manager = AppointmentManager.loadAll();
-        if (manager.getPatients().isEmpty() && manager.getDoctors().isEmpty() && manager.getServices().isEmpty()) {
-            manager = DataSeeder.seedMinimum();
-            manager.saveAll();
+        AppointmentManager manager = AppointmentManager.loadOrSeed();
+        // bật -Dbtl.metrics=true: đo qua decorator, xem bằng JMX hoặc file metrics.json
+        Schedulable scheduler = MeteredScheduler.wrap(manager);
+        if (Metrics.ENABLED) {
+            Metrics.registerMBean();
+            Metrics.startDumping(Constants.METRICS_JSON, Constants.METRICS_DUMP_SECONDS);
         }
+        // thay đổi được ghi ra CSV ở luồng nền (và lần cuối khi thoát), không cần chờ mục 9
+        BackgroundPersister persister = BackgroundPersister.start(manager, Constants.PERSIST_INTERVAL_MS);
 
         while (true) {
             System.out.println("\n╔══════════════════════════════════════════════════════╗");
@@ -35,11 +40,15 @@ public class UngDungQuanLy {
             System.out.println("║ 4. Thêm bác sĩ                                        ║");
             System.out.println("║ 5. Danh sách dịch vụ                                  ║");
             System.out.println("║ 6. Đặt lịch khám                                      ║");
-            System.out.println("║ 7. Xem lịch của bác sĩ                                ║");
+            System.out.println("║ 7. Xem lịch tuần của bác sĩ                           ║");
             System.out.println("║ 8. Hủy/Hoàn tất lịch                                  ║");
             System.out.println("║ 9. Lưu tất cả ra CSV                                  ║");
             System.out.println("║ 10. Báo cáo: Top 3 bác sĩ nhiều lịch                  ║");
             System.out.println("║ 11. Báo cáo: Doanh thu tháng hiện tại                 ║");
+            System.out.println("║ 12. Phân tích theo khoa/dịch vụ (khoảng ngày)         ║");
+            System.out.println("║ 13. Sửa thông tin bệnh nhân                            ║");
+            System.out.println("║ 14. Công nợ: xuất tuổi nợ 30/60/90 ngày               ║");
+            System.out.println("║ 15. Thanh toán hàng loạt theo file                    ║");
             System.out.println("║ 0. Thoát                                              ║");
             System.out.println("╚══════════════════════════════════════════════════════╝");
             System.out.print("Nhập lựa chọn: ");
@@ -64,7 +73,7 @@ public class UngDungQuanLy {
                     System.out.print("Địa chỉ: "); String addr = SC.nextLine();
                     System.out.print("Mã BHYT (để trống nếu không có): "); String bhyt = SC.nextLine();
                     Patient p = new Patient(null, name, phone, addr, bhyt);
-                    manager.getPatients().add(p);
+                    manager.addPatient(p);
                     System.out.println(">> Đã thêm bệnh nhân " + name + ". ID=" + p.getId());
                     pause();
                 }
@@ -86,7 +95,7 @@ public class UngDungQuanLy {
                     int idx = Integer.parseInt(SC.nextLine().trim());
                     Department dep = deps[Math.max(1, Math.min(idx, deps.length)) - 1];
                     Doctor d = new Doctor(null, name, phone, addr, dep);
-                    manager.getDoctors().add(d);
+                    manager.addDoctor(d);
                     System.out.println(">> Đã thêm bác sĩ " + name + ". ID=" + d.getId());
                     pause();
                 }
@@ -100,34 +109,45 @@ public class UngDungQuanLy {
                 }
                 case 6 -> { // đặt lịch
                     printHeader("Đặt lịch khám");
-                    UUID pid = pickPatient(manager.getPatients());
+                    UUID pid = pickPatient(manager.getPatientIndex());
                     UUID did = pickDoctor(manager.getDoctors());
                     UUID sid = pickService(manager.getServices());
                     System.out.print("Nhập thời gian bắt đầu (yyyy-MM-dd HH:mm): ");
                     String txt = SC.nextLine();
                     LocalDateTime start = DateTimeUtil.parse(txt, Constants.DATE_TIME_PATTERN);
                     try {
-                        Appointment a = manager.book(pid, did, sid, start);
+                        Appointment a = scheduler.book(pid, did, sid, start);
                         System.out.println(">> Đặt lịch thành công. Appointment ID=" + a.getId());
                     } catch (AppointmentConflictException ex) {
                         System.out.println("!! Không thể đặt lịch: " + ex.getMessage());
+                        // gợi ý các giờ trống gần nhất trong 7 ngày
+                        List<FreeSlot> slots = scheduler.findFreeSlots(did, manager.getService(sid), start, start.plusDays(7), 3);
+                        if (!slots.isEmpty()) System.out.println("Gợi ý giờ trống:");
+                        for (FreeSlot fs : slots) {
+                            System.out.printf("  - %s -> %s%n",
+                                    DateTimeUtil.format(fs.getStart(), Constants.DATE_TIME_PATTERN),
+                                    DateTimeUtil.format(fs.getEnd(), Constants.DATE_TIME_PATTERN));
+                        }
                     } catch (RuntimeException ex) {
                         System.out.println("!! Lỗi: " + ex.getMessage());
                     }
                     pause();
                 }
-                case 7 -> { // xem lịch theo bác sĩ
-                    printHeader("Xem lịch của bác sĩ");
+                case 7 -> { // xem lịch tuần theo bác sĩ (lịch chưa hủy, đã sắp theo giờ)
+                    printHeader("Xem lịch tuần của bác sĩ");
                     UUID did = pickDoctor(manager.getDoctors());
-                    List<Appointment> list = manager.listAppointmentsByDoctor(did);
-                    if (list.isEmpty()) System.out.println("Không có lịch.");
-                    else for (Appointment a : list) {
-                        System.out.printf("- [%s] %s -> %s | Trạng thái: %s | ApptID=%s%n",
-                                a.getServiceId(),
-                                DateTimeUtil.format(a.getStart(), Constants.DATE_TIME_PATTERN),
-                                DateTimeUtil.format(a.getEnd(), Constants.DATE_TIME_PATTERN),
-                                a.getStatus(), a.getId());
-                    }
+                    System.out.print("Ngày trong tuần cần xem (yyyy-MM-dd, Enter = hôm nay): ");
+                    String day = SC.nextLine().trim();
+                    CalendarView week = manager.calendarWeek(did, day.isEmpty() ? LocalDate.now() : LocalDate.parse(day));
+                    week.utilisationByDay().forEach((d, u) -> {
+                        System.out.printf("%s %s | lấp đầy %.0f%%%n", d.getDayOfWeek(), d, 100 * u);
+                        for (Appointment a : week.on(d)) {
+                            System.out.printf("  - %s -> %s | [%s] | %s | ApptID=%s%n",
+                                    DateTimeUtil.format(a.getStart(), "HH:mm"), DateTimeUtil.format(a.getEnd(), "HH:mm"),
+                                    a.getServiceId(), a.getStatus(), a.getId());
+                        }
+                    });
+                    System.out.printf(">> Lấp đầy cả tuần (trừ Chủ nhật): %.1f%%%n", 100 * week.utilisation());
                     pause();
                 }
                 case 8 -> { // hủy/hoàn tất lịch
@@ -146,12 +166,16 @@ public class UngDungQuanLy {
                     Appointment chosen = recent.get(Math.max(1, Math.min(idx, recent.size())) - 1);
                     System.out.print("Nhập hành động (C=Cancel, D=Done): ");
                     String act = SC.nextLine().trim().toUpperCase();
-                    if ("C".equals(act)) { manager.cancel(chosen.getId()); System.out.println(">> Đã hủy lịch."); }
-                    else if ("D".equals(act)) { manager.complete(chosen.getId()); System.out.println(">> Đã hoàn tất lịch."); }
-                    else System.out.println("Hành động không hợp lệ.");
+                    try {
+                        if ("C".equals(act)) { scheduler.cancel(chosen.getId()); System.out.println(">> Đã hủy lịch."); }
+                        else if ("D".equals(act)) { scheduler.complete(chosen.getId()); System.out.println(">> Đã hoàn tất lịch."); }
+                        else System.out.println("Hành động không hợp lệ.");
+                    } catch (IllegalArgumentException ex) {
+                        System.out.println("!! " + ex.getMessage());
+                    }
                     pause();
                 }
-                case 9 -> { // lưu CSV
+                case 9 -> { // lưu CSV (gộp nhật ký vào snapshot)
                     manager.saveAll();
                     System.out.println(">> Đã lưu tất cả dữ liệu ra CSV.");
                     pause();
@@ -160,7 +184,7 @@ public class UngDungQuanLy {
                     printHeader("Báo cáo: Top 3 bác sĩ nhiều lịch");
                     var top3 = DataSeeder.top3DoctorsByAppointments(manager);
                     for (var e : top3) {
-                        Doctor d = manager.getDoctors().stream().filter(x -> x.getId().equals(e.getKey())).findFirst().orElse(null);
+                        Doctor d = manager.getDoctor(e.getKey());
                         if (d != null) System.out.printf("- %s (%s): %d lịch%n", d.getFullName(), d.getDepartment(), e.getValue());
                     }
                     pause();
@@ -172,19 +196,98 @@ public class UngDungQuanLy {
                     System.out.printf(">> Doanh thu %d-%02d: %.0f VND%n", now.getYear(), now.getMonthValue(), revenue);
                     pause();
                 }
+                case 12 -> { // phân tích theo khoảng ngày
+                    printHeader("Phân tích doanh thu, tỉ lệ sử dụng, tỉ lệ hủy");
+                    try {
+                        System.out.print("Từ ngày (yyyy-MM-dd): ");
+                        LocalDate from = LocalDate.parse(SC.nextLine().trim());
+                        System.out.print("Đến ngày, không tính (yyyy-MM-dd): ");
+                        LocalDate to = LocalDate.parse(SC.nextLine().trim());
+                        AnalyticsReport r = AnalyticsEngine.of(manager, from, to).analyze(from, to);
+                        System.out.printf(">> Tổng doanh thu: %.0f VND | tỉ lệ hủy: %.1f%%%n", r.totalRevenue(), 100 * r.cancellationRate());
+                        var util = r.utilisationByDepartment();
+                        var cancel = r.cancellationRateByDepartment();
+                        r.revenueByDepartment().forEach((d, v) -> System.out.printf("- %-12s %,15.0f VND | sử dụng %.1f%% | hủy %.1f%%%n",
+                                d, v, 100 * util.get(d), 100 * cancel.get(d)));
+                        r.revenueByServiceType().forEach((t, v) -> { if (v > 0) System.out.printf("- %-18s %,15.0f VND%n", t, v); });
+                    } catch (Exception e) {
+                        System.out.println("Lỗi: " + e.getMessage());
+                    }
+                    pause();
+                }
+                case 13 -> { // sửa bệnh nhân
+                    printHeader("Sửa thông tin bệnh nhân");
+                    Patient p = manager.getPatient(pickPatient(manager.getPatientIndex()));
+                    System.out.println("(Enter để giữ nguyên)");
+                    System.out.print("Họ tên [" + p.getFullName() + "]: "); String name = SC.nextLine().trim();
+                    System.out.print("SĐT [" + p.getPhone() + "]: "); String phone = SC.nextLine().trim();
+                    System.out.print("Địa chỉ [" + p.getAddress() + "]: "); String addr = SC.nextLine().trim();
+                    System.out.print("Mã BHYT [" + p.getInsuranceNumber() + "]: "); String bhyt = SC.nextLine().trim();
+                    manager.updatePatient(new Patient(p.getId(),
+                            name.isEmpty() ? p.getFullName() : name, phone.isEmpty() ? p.getPhone() : phone,
+                            addr.isEmpty() ? p.getAddress() : addr, bhyt.isEmpty() ? p.getInsuranceNumber() : bhyt));
+                    System.out.println(">> Đã cập nhật bệnh nhân. ID=" + p.getId());
+                    pause();
+                }
+                case 14 -> { // công nợ theo tuổi nợ, ghi dần ra CSV
+                    printHeader("Công nợ theo tuổi nợ");
+                    System.out.print("File xuất (Enter = receivables.csv): ");
+                    String path = SC.nextLine().trim();
+                    AgeingReport r = manager.exportAgeing(path.isEmpty() ? "receivables.csv" : path, LocalDate.now());
+                    for (AgeingBucket b : AgeingBucket.values()) {
+                        System.out.printf("- %-6s ngày: %,8d hóa đơn | %,15.0f VND%n", b.label, r.count(b), r.amount(b));
+                    }
+                    System.out.printf(">> Tổng nợ: %,d hóa đơn | %,.0f VND%n", r.totalCount(), r.totalAmount());
+                    pause();
+                }
+                case 15 -> { // thanh toán theo file: mỗi dòng 1 id hóa đơn hoặc id lịch hẹn
+                    printHeader("Thanh toán hàng loạt theo file");
+                    System.out.print("File thanh toán: ");
+                    try {
+                        PaymentBatchResult r = manager.applyPaymentFile(SC.nextLine().trim());
+                        System.out.printf(">> Đã thanh toán %d | đã thanh toán từ trước %d | không khớp %d%n",
+                                r.getPaid(), r.getAlreadyPaid(), r.getUnmatched());
+                        for (String line : r.getUnmatchedSamples()) System.out.println("  ? " + line);
+                    } catch (Exception e) {
+                        System.out.println("Lỗi: " + e.getMessage());
+                    }
+                    pause();
+                }
                 default -> System.out.println("Lựa chọn không hợp lệ!");
             }
         }
+        persister.close();
+        manager.closeJournal();
+        if (Metrics.ENABLED) {
+            CsvStorage.saveLines(Constants.METRICS_JSON, List.of(Metrics.toJson()));
+            System.out.print(Metrics.toText());
+        }
         System.out.println("Thoát chương trình.");
     }
 
     // ======= Helpers chọn ID theo danh sách (giữ style gọn, giống cách bạn làm) =======
-    private static UUID pickPatient(List<Patient> patients) {
-        System.out.println("Chọn bệnh nhân (nhập số):");
-        for (int i = 0; i < patients.size(); i++)
-            System.out.printf("%d) %s | ID=%s%n", i + 1, patients.get(i).getFullName(), patients.get(i).getId());
-        int idx = Integer.parseInt(SC.nextLine().trim());
-        return patients.get(Math.max(1, Math.min(idx, patients.size())) - 1).getId();
+    // tìm theo tên/SĐT/BHYT rồi chọn trong từng trang 10 dòng, thay vì in cả danh sách
+    private static UUID pickPatient(PatientSearchIndex index) {
+        while (true) {
+            System.out.print("Tìm bệnh nhân (tên, SĐT hoặc mã BHYT; Enter = tất cả): ");
+            String query = SC.nextLine();
+            for (int page = 0; ; page++) {
+                Page<Patient> result = index.search(query, page, 10);
+                List<Patient> items = result.getItems();
+                if (items.isEmpty()) { System.out.println("Không tìm thấy."); break; }
+                for (int i = 0; i < items.size(); i++)
+                    System.out.printf("%d) %s | %s | BHYT: %s | ID=%s%n", i + 1, items.get(i).getFullName(),
+                            items.get(i).getPhone(), items.get(i).getInsuranceNumber(), items.get(i).getId());
+                System.out.print("Nhập số để chọn" + (result.hasMore() ? ", n = trang sau" : "") + ", Enter = tìm lại: ");
+                String in = SC.nextLine().trim();
+                if (in.equalsIgnoreCase("n") && result.hasMore()) continue;
+                if (in.isEmpty()) break;
+                try {
+                    int idx = Integer.parseInt(in);
+                    return items.get(Math.max(1, Math.min(idx, items.size())) - 1).getId();
+                } catch (NumberFormatException e) { break; }
+            }
+        }
     }
     private static UUID pickDoctor(List<Doctor> doctors) {
         System.out.println("Chọn bác sĩ (nhập số):");
@@ -0,0 +1,115 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Nhiều quầy đặt/hủy/hoàn thành cùng lúc trên ít bác sĩ, ít khung giờ (tranh chấp cao),
+ * kèm 1 luồng đọc duyệt danh sách lịch liên tục. Sau cùng: không bác sĩ nào có 2 lịch
+ * chưa hủy chồng nhau, và lịch đã hủy không mở lại được.
+ */
+class ConcurrentBookingStressTest {
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 3_000;
+    private static final int DOCTORS = 3;
+    private static final int SLOTS = 40; // lưới 5' trong 1 buổi sáng
+
+    @Test
+    void concurrentBookingsNeverOverlap() throws Exception {
+        AppointmentManager mgr = DataSeeder.seedMinimum();
+        List<UUID> patients = mgr.getPatients().stream().map(Patient::getId).toList();
+        List<UUID> doctors = mgr.getDoctors().stream().map(Doctor::getId).limit(DOCTORS).toList();
+        List<UUID> services = mgr.getServices().stream()
+                .filter(s -> s.getDurationMinutes() <= 20).map(MedicalService::getId).toList();
+        LocalDateTime base = LocalDate.now().plusYears(1).atTime(Constants.WORK_START_HOUR, 0);
+
+        List<UUID> booked = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger conflicts = new AtomicInteger(), reopenRejected = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+
+        // luồng đọc: getAppointments() phải duyệt được trong khi các quầy đang thêm lịch
+        Future<?> reader = pool.submit(() -> {
+            start.await();
+            while (!done.get()) {
+                for (Appointment a : mgr.getAppointments()) assertNotNull(a.getId());
+            }
+            return null;
+        });
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    try {
+                        int op = rnd.nextInt(10);
+                        if (op < 6 || booked.isEmpty()) {
+                            Appointment a = mgr.book(patients.get(rnd.nextInt(patients.size())), doctors.get(rnd.nextInt(DOCTORS)),
+                                    services.get(rnd.nextInt(services.size())), base.plusMinutes(5L * rnd.nextInt(SLOTS)));
+                            booked.add(a.getId());
+                        } else {
+                            UUID id = booked.get(rnd.nextInt(booked.size()));
+                            if (op < 8) mgr.cancel(id);
+                            else mgr.complete(id);
+                        }
+                    } catch (AppointmentConflictException e) {
+                        conflicts.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        reopenRejected.incrementAndGet(); // hoàn thành lịch đã hủy
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> w : workers) w.get(2, TimeUnit.MINUTES);
+        done.set(true);
+        reader.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        if (!errors.isEmpty()) fail("Lỗi không mong đợi: " + errors.peek(), errors.peek());
+
+        assertTrue(conflicts.get() > 0, "bài thử phải tạo ra tranh chấp");
+        for (UUID doctor : doctors) {
+            List<Appointment> live = mgr.getAppointments().stream()
+                    .filter(a -> a.getDoctorId().equals(doctor) && a.getStatus() != AppointmentStatus.CANCELLED)
+                    .sorted(Comparator.comparing(Appointment::getStart)).toList();
+            for (int i = 1; i < live.size(); i++) {
+                Appointment prev = live.get(i - 1), cur = live.get(i);
+                assertFalse(cur.getStart().isBefore(prev.getEnd()), "Trùng lịch: " + prev.getId() + " và " + cur.getId());
+            }
+            for (Appointment a : live) assertFalse(mgr.isAvailable(doctor, a.getStart(), a.getEnd()));
+        }
+    }
+
+    @Test
+    void cancelledAppointmentCannotBeReopened() {
+        AppointmentManager mgr = DataSeeder.seedMinimum();
+        UUID patient = mgr.getPatients().get(0).getId();
+        UUID doctor = mgr.getDoctors().get(0).getId();
+        UUID service = mgr.getServices().get(0).getId();
+        LocalDateTime at = LocalDate.now().plusYears(1).atTime(Constants.WORK_START_HOUR, 0);
+
+        Appointment first = mgr.book(patient, doctor, service, at);
+        mgr.cancel(first.getId());
+        Appointment second = mgr.book(patient, doctor, service, at);
+
+        assertThrows(IllegalArgumentException.class, () -> mgr.complete(first.getId()));
+        assertEquals(AppointmentStatus.CANCELLED, first.getStatus());
+        assertEquals(AppointmentStatus.SCHEDULED, second.getStatus());
+        assertFalse(mgr.isAvailable(doctor, at, second.getEnd()));
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Kho dạng cột: view phải giữ định danh (==, synchronized, Set) như đối tượng thường và đúng dữ liệu */
+class ColumnarStoreTest {
+    @TempDir Path dir;
+
+    private final LocalDateTime start = LocalDateTime.of(2024, 3, 4, 9, 0);
+    private final Appointment a = new Appointment(null, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(),
+            start, start.plusMinutes(30), AppointmentStatus.COMPLETED);
+    private final Appointment b = new Appointment(null, a.getPatientId(), a.getDoctorId(), a.getServiceId(),
+            start.plusHours(1), start.plusHours(1).plusMinutes(30), AppointmentStatus.CANCELLED);
+    private final Invoice inv = new Invoice(null, a.getId(), 150_000, start, false);
+
+    @Test
+    void viewsKeepIdentityAndEquality() {
+        ColumnarStore store = ColumnarStore.of(List.of(a, b), List.of(inv));
+
+        Appointment first = store.appointments.get(0);
+        System.gc();
+        assertSame(first, store.appointments.get(0));
+        assertEquals(first, store.appointments.get(0));
+        assertNotEquals(first, store.appointments.get(1));
+
+        Set<Appointment> seen = new HashSet<>(store.appointments);
+        assertTrue(seen.contains(store.appointments.get(1)));
+        assertEquals(2, seen.size());
+
+        Invoice view = store.invoices.get(0);
+        view.markPaid();
+        assertSame(view, store.invoices.get(0));
+        assertTrue(store.invoices.get(0).isPaid());
+    }
+
+    @Test
+    void viewsReadBackSameData() {
+        ColumnarStore store = ColumnarStore.of(List.of(a, b), List.of(inv));
+        assertEquals(a.toCSV(), store.appointments.get(0).toCSV());
+        assertEquals(b.toCSV(), store.appointments.get(1).toCSV());
+        assertEquals(inv.toCSV(), store.invoices.get(0).toCSV());
+
+        // dòng không còn ai giữ view vẫn đọc lại đúng
+        String csv = store.appointments.get(1).toCSV();
+        System.gc();
+        assertEquals(csv, store.appointments.get(1).toCSV());
+
+        assertFalse(store.appointments.add(a), "id đã có thì bỏ qua");
+        assertEquals(2, store.appointments.size());
+    }
+
+    @Test
+    void historyPartitionReturnsSameObjectForSameRow() {
+        YearMonth m = YearMonth.from(start);
+        MonthPartitionStore.open(dir.toString(), 2).archive(Map.of(m, List.of(a, b)), Map.of(m, List.of(inv)));
+
+        MonthPartitionStore.Partition p = MonthPartitionStore.open(dir.toString(), 2).partition(m);
+        Appointment byId = p.getAppointment(a.getId());
+        assertSame(byId, p.appointments.get(p.appointments.indexOf(byId)));
+        assertEquals(a.toCSV(), byId.toCSV());
+        assertTrue(p.contains(inv.getId()));
+        assertNull(p.getAppointment(UUID.randomUUID()));
+    }
+}
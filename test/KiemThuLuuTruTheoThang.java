@@ -0,0 +1,40 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Lưu trữ theo tháng: saveAll gọi lại sau lỗi gửi lại các dòng đã ghi, không được ghi trùng */
+class MonthPartitionStoreTest {
+    @TempDir Path dir;
+
+    @Test
+    void archiveSkipsRowsAlreadyInMonth() {
+        YearMonth m = YearMonth.of(2024, 3);
+        UUID doctor = UUID.randomUUID();
+        LocalDateTime start = m.atDay(4).atTime(9, 0);
+        Appointment a = new Appointment(null, UUID.randomUUID(), doctor, UUID.randomUUID(),
+                start, start.plusMinutes(30), AppointmentStatus.COMPLETED);
+        Invoice inv = new Invoice(null, a.getId(), 200_000, start, true);
+
+        MonthPartitionStore store = MonthPartitionStore.open(dir.toString(), 2);
+        store.archive(Map.of(m, List.of(a)), Map.of(m, List.of(inv)));
+        store.archive(Map.of(m, List.of(a)), Map.of(m, List.of(inv)));
+
+        assertEquals(1, store.partition(m).appointments.size());
+        assertEquals(1, store.partition(m).invoices.size());
+        assertEquals(1, store.summary().appointmentCount(doctor));
+        assertEquals(200_000, store.summary().monthlyPaidRevenue(2024, 3), 1e-6);
+
+        MonthPartitionStore reopened = MonthPartitionStore.open(dir.toString(), 2);
+        assertEquals(1, reopened.summary().appointmentCount(doctor));
+        assertEquals(200_000, reopened.summary().monthlyRevenue(2024, 3), 1e-6);
+        assertEquals(1, reopened.partition(m).appointments.size());
+    }
+}
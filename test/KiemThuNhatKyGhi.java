@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Nhật ký bị cắt dở cuối file (sập giữa lúc ghi) không được làm hỏng các lần khởi động sau */
+class MutationJournalTest {
+    @TempDir Path dir;
+
+    @Test
+    void tornTailIsDroppedBeforeAppending() throws Exception {
+        Path log = dir.resolve(Constants.JOURNAL_LOG);
+        try (MutationJournal j = MutationJournal.open(log.toString())) {
+            j.append(MutationJournal.PAID, "a");
+            j.append(MutationJournal.PAID, "b");
+        }
+        // bản ghi dở: vẫn đọc được thành "PAID,c" nhưng chưa có '\n' nên chưa chắc ghi xong
+        Files.write(log, "PAID,c".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(List.of("a", "b"), replay(log));
+
+        try (MutationJournal j = MutationJournal.open(log.toString())) {
+            j.append(MutationJournal.PAID, "d");
+        }
+        assertEquals(List.of("a", "b", "d"), replay(log));
+        assertEquals("PAID,a\nPAID,b\nPAID,d\n", Files.readString(log));
+    }
+
+    @Test
+    void managerRestartsAfterTornJournal() throws Exception {
+        AppointmentManager mgr = DataSeeder.seedMinimum();
+        mgr.setDataDir(dir);
+        mgr.saveAll();
+        mgr.attachJournal(dir.resolve(Constants.JOURNAL_LOG).toString());
+        Patient first = new Patient(null, "Trước khi sập", "0901", "HN", "");
+        mgr.addPatient(first);
+        mgr.closeJournal();
+        Files.write(dir.resolve(Constants.JOURNAL_LOG), "PATIENT,3f2a".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        AppointmentManager restarted = AppointmentManager.loadAll(dir);
+        Patient second = new Patient(null, "Sau khi sập", "0902", "HN", "");
+        restarted.addPatient(second);
+        restarted.closeJournal();
+
+        AppointmentManager again = AppointmentManager.loadAll(dir);
+        again.closeJournal();
+        assertNotNull(again.getPatient(first.getId()));
+        assertNotNull(again.getPatient(second.getId()));
+        assertEquals(mgr.getPatients().size() + 1, again.getPatients().size());
+    }
+
+    private static List<String> replay(Path log) {
+        List<String> payloads = new ArrayList<>();
+        MutationJournal.replay(log.toString(), (type, payload) -> payloads.add(payload));
+        return payloads;
+    }
+}
@@ -0,0 +1,30 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Tìm gần đúng: 1 từ gõ sai nặng không được làm mất kết quả của các từ còn lại */
+class PatientSearchIndexTest {
+    private final Patient an = new Patient(null, "Nguyễn Văn An", "0901000001", "HN", "");
+    private final Patient binh = new Patient(null, "Trần Thị Bình", "0901000002", "HN", "");
+    private final PatientSearchIndex index = new PatientSearchIndex(List.of(an, binh));
+
+    @Test
+    void fuzzyIgnoresTokenWithoutNearMatch() {
+        assertEquals(List.of(an), index.fuzzy("nguyen xqzwk", 5));
+        assertEquals(List.of(binh), index.fuzzy("zzzzzz tran binh", 5));
+    }
+
+    @Test
+    void fuzzyStillMatchesTypos() {
+        assertEquals(List.of(an), index.fuzzy("nguyn van an", 5));
+        assertTrue(index.fuzzy("qqqqqq", 5).isEmpty());
+    }
+
+    @Test
+    void pagingRejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> index.search("nguyen", 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> index.search("nguyen", -1, 10));
+    }
+}